@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.pkt.auth;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-packet cost of the payload cipher. <code>perPacketLookup</code> does
+ * what {@link AES} did before it cached its ciphers: look up a cipher and
+ * build the key and IV specs for every packet. The other benchmarks use
+ * {@link AES} as it is now, with one session, with two sessions taking turns
+ * on the same thread, and in place on a direct buffer as the command path
+ * does.<br>
+ * <br>
+ * Run with <code>mvn -Pjmh test-compile exec:exec</code>.
+ *
+ * @author Anthony
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AesBenchmark {
+
+    private static final byte[] IV = { 0x56, 0x2e, 0x17, (byte) 0x99, 0x6d, 0x09, 0x3d, 0x28, (byte) 0xdd,
+            (byte) 0xb3, (byte) 0xba, 0x69, 0x5a, 0x2e, 0x6f, 0x58 };
+
+    private static final byte[] KEY = { 0x09, 0x76, 0x28, 0x34, 0x3f, (byte) 0xe9, (byte) 0x9e, 0x23, 0x76, 0x5c,
+            0x15, 0x13, (byte) 0xac, (byte) 0xcf, (byte) 0x8b, 0x02 };
+
+    private static final byte[] OTHER_KEY = { 0x10, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88, (byte) 0x99,
+            (byte) 0xaa, (byte) 0xbb, (byte) 0xcc, (byte) 0xdd, (byte) 0xee, (byte) 0xff, 0x01 };
+
+    /**
+     * Payload length: a state request, and a typical IR code
+     */
+    @Param({ "16", "256" })
+    public int length;
+
+    private byte[] payload;
+
+    private ByteBuffer direct;
+
+    private AES aes;
+
+    private AES other;
+
+    private boolean turn;
+
+    @Setup
+    public void setUp() {
+        payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) i;
+        }
+        direct = ByteBuffer.allocateDirect(length);
+        aes = new AES(IV, KEY);
+        other = new AES(IV, OTHER_KEY);
+    }
+
+    @Benchmark
+    public byte[] perPacketLookup() throws Exception {
+        Cipher c = Cipher.getInstance("AES/CBC/NoPadding");
+        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(IV));
+        return c.doFinal(payload);
+    }
+
+    @Benchmark
+    public byte[] cachedCipher() throws Exception {
+        return aes.encrypt(payload);
+    }
+
+    @Benchmark
+    public byte[] cachedCipherTwoSessions() throws Exception {
+        turn = !turn;
+        return (turn ? aes : other).encrypt(payload);
+    }
+
+    @Benchmark
+    public int cachedCipherInPlace() throws Exception {
+        direct.clear();
+        direct.put(payload).flip();
+        ByteBuffer out = direct.duplicate();
+        return aes.encrypt(direct, out);
+    }
+
+}
@@ -28,36 +28,56 @@
  *******************************************************************************/
 package com.github.mob41.blapi;
 
-import java.net.DatagramPacket;
-
-import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.net.Priority;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 import com.github.mob41.blapi.pkt.cmd.rm2.RMTempCmdPayload;
 
 public class A1Device extends BLDevice {
 
+    /**
+     * Key of the cached sensors data
+     */
+    private static final String SENSORS_DATA = "getSensorsData";
+
     public A1Device(short deviceType, String deviceDesc, String host, Mac mac) {
         super(deviceType, deviceDesc, host, mac);
     }
 
     public EnvData getSensorsData() throws Exception {
-        DatagramPacket packet = sendCmdPkt(new RMTempCmdPayload());
-        byte[] data = packet.getData();
+        return getResult(getSensorsDataAsync());
+    }
+
+    /**
+     * Requests the sensors data without blocking. Concurrent requests share
+     * one exchange with the device, and data cached within
+     * {@link #getStateCacheTtl()} is returned without one.
+     * 
+     * @return A future of the sensors data, or of <code>null</code> if the
+     *         device returned an error
+     */
+    public CompletableFuture<EnvData> getSensorsDataAsync() {
+        return cachedRead(SENSORS_DATA,
+                () -> sendCmdPktAsync(10000, new RMTempCmdPayload(), this::parseSensorsData, Priority.BACKGROUND));
+    }
 
-        log.debug("A1 check sensors received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+    private EnvData parseSensorsData(ResponseFrame frame) throws Exception {
+        log.debug("A1 check sensors received encrypted bytes: {}", frame);
 
-        int err = data[0x22] | (data[0x23] << 8);
+        int err = frame.getErr();
 
         if (err == 0) {
-            byte[] pl = decryptFromDeviceMessage(data);
-            log.debug("A1 check sensors received bytes (decrypted):" + DatatypeConverter.printHexBinary(pl));
+            ByteBuffer pl = decryptPayload(frame);
+            log.debug("A1 check sensors received bytes (decrypted): {}", frame);
 
-            float temp = (float) ((pl[0x4] * 10 + pl[0x5]) / 10.0);
-            float hum = (float) ((pl[0x6] * 10 + pl[0x7]) / 10.0);
-            byte light = pl[0x8];
-            byte airQuality = pl[0x0a];
-            byte noise = pl[0xc];
+            float temp = (float) ((pl.get(0x4) * 10 + pl.get(0x5)) / 10.0);
+            float hum = (float) ((pl.get(0x6) * 10 + pl.get(0x7)) / 10.0);
+            byte light = pl.get(0x8);
+            byte airQuality = pl.get(0x0a);
+            byte noise = pl.get(0xc);
             
             return new EnvData(temp, hum, light, airQuality, noise);
         } else {
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi;
+
+/**
+ * Outcome of authenticating one device of a fleet
+ * 
+ * @author Anthony
+ *
+ */
+public enum AuthOutcome {
+
+    /**
+     * The device holds a session
+     */
+    OK,
+
+    /**
+     * The device did not respond before the deadline, or the deadline passed
+     * before its handshake could start
+     */
+    TIMEOUT,
+
+    /**
+     * The device responded with a payload that could not be decrypted
+     */
+    DECRYPT_FAILURE,
+
+    /**
+     * The handshake failed for another reason, e.g. an unknown host
+     */
+    ERROR
+
+}
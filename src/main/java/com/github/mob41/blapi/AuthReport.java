@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.github.mob41.blapi.net.LatencyHistogram;
+
+/**
+ * Result of {@link BLDevice#authenticateAll(java.util.Collection, int, int)
+ * authenticating a fleet} of devices
+ * 
+ * @author Anthony
+ *
+ */
+public final class AuthReport {
+
+    private final Map<BLDevice, AuthOutcome> outcomes;
+
+    private final LatencyHistogram latencies;
+
+    private final long elapsed;
+
+    AuthReport(Map<BLDevice, AuthOutcome> outcomes, LatencyHistogram latencies, long elapsed) {
+        this.outcomes = Collections.unmodifiableMap(outcomes);
+        this.latencies = latencies;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Returns the outcome of every device, in the order they were given
+     * 
+     * @return Unmodifiable map of the outcomes
+     */
+    public Map<BLDevice, AuthOutcome> getOutcomes() {
+        return outcomes;
+    }
+
+    /**
+     * Returns the outcome of a device
+     * 
+     * @param device
+     *            One of the devices authenticated
+     * @return The outcome, or <code>null</code> if the device was not part of
+     *         the fleet
+     */
+    public AuthOutcome getOutcome(BLDevice device) {
+        return outcomes.get(device);
+    }
+
+    /**
+     * Returns the devices with an outcome
+     * 
+     * @param outcome
+     *            The outcome
+     * @return The devices with that outcome
+     */
+    public List<BLDevice> getDevices(AuthOutcome outcome) {
+        List<BLDevice> devices = new ArrayList<>();
+        for (Map.Entry<BLDevice, AuthOutcome> e : outcomes.entrySet()) {
+            if (e.getValue() == outcome) {
+                devices.add(e.getKey());
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Returns the number of devices with an outcome
+     * 
+     * @param outcome
+     *            The outcome
+     * @return Number of devices
+     */
+    public int getCount(AuthOutcome outcome) {
+        int count = 0;
+        for (AuthOutcome o : outcomes.values()) {
+            if (o == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latencies of the handshakes that succeeded, from sending
+     * the request to decoding the response
+     * 
+     * @return The latency histogram
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns how long authenticating the fleet took
+     * 
+     * @return Elapsed time in ms
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AuthReport [");
+        for (AuthOutcome o : AuthOutcome.values()) {
+            sb.append(o).append('=').append(getCount(o)).append(", ");
+        }
+        return sb.append("elapsed=").append(elapsed).append(", ").append(latencies).append(']').toString();
+    }
+
+}
@@ -31,31 +31,57 @@ package com.github.mob41.blapi;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import javax.xml.bind.DatatypeConverter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.mob41.blapi.dis.DeviceDescriptor;
+import com.github.mob41.blapi.dis.Discovery;
+import com.github.mob41.blapi.dis.DiscoveryListener;
+import com.github.mob41.blapi.ex.BLApiAuthException;
 import com.github.mob41.blapi.ex.BLApiRuntimeException;
 import com.github.mob41.blapi.mac.Mac;
-import com.github.mob41.blapi.pkt.CmdPacket;
+import com.github.mob41.blapi.net.BufferPool;
+import com.github.mob41.blapi.net.DatagramTransport;
+import com.github.mob41.blapi.net.InFlightWindow;
+import com.github.mob41.blapi.net.LatencyHistogram;
+import com.github.mob41.blapi.net.Priority;
+import com.github.mob41.blapi.net.RetryPolicy;
+import com.github.mob41.blapi.net.WireTap;
+import com.github.mob41.blapi.pkt.CmdPacketEncoder;
 import com.github.mob41.blapi.pkt.CmdPayload;
 import com.github.mob41.blapi.pkt.Packet;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 import com.github.mob41.blapi.pkt.auth.AES;
 import com.github.mob41.blapi.pkt.auth.AuthCmdPayload;
-import com.github.mob41.blapi.pkt.dis.DiscoveryPacket;
+import com.github.mob41.blapi.pkt.auth.Session;
 
 /**
  * This is the base class of all Broadlink devices (e.g. SP1, RMPro)
@@ -84,110 +110,53 @@ public abstract class BLDevice implements Closeable {
 
     public static final int DEFAULT_BYTES_SIZE = 0x38; // 56-bytes
 
-    private static interface BLDeviceCreator {
-        BLDevice create(short deviceType, String desc, String host, Mac mac);
-    }
-    
-    private static class ConfigItem {
-        private final short deviceType;
-        private final String desc;
-        private final BLDeviceCreator creator;
-        
-        public ConfigItem(short deviceType, String desc, BLDeviceCreator creator) {
-            this.deviceType = deviceType;
-            this.desc = desc;
-            this.creator = creator;
-        }
-
-        public Stream<BLDevice> createIfMatch(short deviceType, String host, Mac mac) {
-            if (this.deviceType == deviceType) {
-                BLDevice dev = creator.create(deviceType, desc, host, mac);
-                return Stream.of(dev);
-            }
-            return Stream.empty();
-        }
-    }
-    
-    private static final List<ConfigItem> CONFIG = Arrays.asList(
-            new ConfigItem((short)0x0, "Smart Plug V1", SP1Device::new),
-            new ConfigItem((short)0x2711, "Smart Plug V2", SP2Device::new),
-            new ConfigItem((short)0x2719, "Smart Plug Honeywell", SP2Device::new),
-            new ConfigItem((short)0x7919, "Smart Plug Honeywell", SP2Device::new),
-            new ConfigItem((short)0x271a, "Smart Plug Honeywell", SP2Device::new),
-            new ConfigItem((short)0x791a, "Smart Plug Honeywell", SP2Device::new),
-            new ConfigItem((short)0x2720, "Smart Plug Mini", SP2Device::new),
-            new ConfigItem((short)0x753e, "Smart Plug V3", SP2Device::new),
-            new ConfigItem((short)0x2728, "Smart Plug Mini V2", SP2Device::new),
-            new ConfigItem((short)0x2733, "Smart Plug OEM", SP2Device::new),
-            new ConfigItem((short)0x273e, "Smart Plug OEM", SP2Device::new),
-            new ConfigItem((short)0x2736, "Smart Plug Mini Plus", SP2Device::new),
-            new ConfigItem((short)0x2712, "RM 2", RM2Device::new),
-            new ConfigItem((short)0x2737, "RM Mini", RM2Device::new),
-            new ConfigItem((short)0x27c2, "RM Mini 3", RM2Device::new),
-            new ConfigItem((short)0x273d, "RM Pro", RM2Device::new),
-            new ConfigItem((short)0x2783, "RM 2 Home Plus", RM2Device::new),
-            new ConfigItem((short)0x277c, "RM 2 Home Plus GDT", RM2Device::new),
-            new ConfigItem((short)0x272a, "RM 2 Pro Plus", RM2Device::new),
-            new ConfigItem((short)0x2787, "RM 2 Pro Plus 2", RM2Device::new),
-            new ConfigItem((short)0x278b, "RM 2 Pro Plus 2 BL", RM2Device::new),
-            new ConfigItem((short)0x278f, "RM Mini SHATE", RM2Device::new),
-            new ConfigItem((short)0x2714, "Environmental Sensor", A1Device::new),
-            new ConfigItem((short)0x4EB5, "Power Strip", MP1Device::new),
-            new ConfigItem((short)0xffad, "Floureon Thermostat", FloureonDevice::new),
-            new ConfigItem((short)0x4ead, "Hysen Thermostat", HysenDevice::new),
-            new ConfigItem((short)0x51DA, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x5209, "RM4 TV mate", RM4Device::new),
-            new ConfigItem((short)0x520C, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x520D, "RM4C mini", RM4Device::new),
-            new ConfigItem((short)0x5211, "RM4C mate", RM4Device::new),
-            new ConfigItem((short)0x5212, "RM4 TV mate", RM4Device::new),
-            new ConfigItem((short)0x5216, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x521C, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x6070, "RM4C mini", RM4Device::new),
-            new ConfigItem((short)0x610E, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x610F, "RM4C mini", RM4Device::new),
-            new ConfigItem((short)0x62BC, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x62BE, "RM4C mini", RM4Device::new),
-            new ConfigItem((short)0x6364, "RM4S", RM4Device::new),
-            new ConfigItem((short)0x648D, "RM4 mini", RM4Device::new),
-            new ConfigItem((short)0x6539, "RM4C mini", RM4Device::new),
-            new ConfigItem((short)0x653A, "RM4 mini", RM4Device::new)
-    );
-    
     /**
-     * The destination port for discovery broadcasting (from __init__.py)
+     * Default discovery timeout (10 seconds)
      */
-    private static final int DISCOVERY_DEST_PORT = 80;
+    private static final int DEFAULT_TIMEOUT = 10000; // 10 seconds (10000 ms)
 
     /**
-     * The discovery receive buffer size (from __init__.py)
+     * Response timeout of the auth handshake (10 seconds)
      */
-    private static final int DISCOVERY_RECEIVE_BUFFER_SIZE = 0x40; // 64-bytes
+    private static final int AUTH_TIMEOUT = 10000;
 
     /**
-     * Default discovery timeout (10 seconds)
+     * Default number of command packets allowed in flight per device
      */
-    private static final int DEFAULT_TIMEOUT = 10000; // 10 seconds (10000 ms)
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
 
     /**
      * Packet count that is sent by this instance of BLDevice. This is for
-     * {@link #sendCmdPkt(CmdPayload) sendCmdPkt} method.
+     * {@link #sendCmdPkt(CmdPayload) sendCmdPkt} method. Responses are
+     * matched to their requests by this counter.
+     */
+    private final AtomicInteger pktCount;
+
+    /**
+     * Limits the command packets this device has in flight
+     */
+    private final InFlightWindow window = new InFlightWindow(DEFAULT_MAX_IN_FLIGHT);
+
+    /**
+     * Reads in flight that concurrent callers can join, by key
      */
-    private int pktCount;
+    private final ConcurrentHashMap<Object, CompletableFuture<?>> sharedReads = new ConcurrentHashMap<>();
 
     /**
-     * Encryption key. Initialization value is {@link #INITIAL_KEY INITIAL_KEY}.
-     * This is for {@link #sendCmdPkt(CmdPayload) sendCmdPkt} method.
+     * Last state observed from this device, by read key
      */
-    private byte[] key;
+    private final ConcurrentHashMap<Object, CachedState> stateCache = new ConcurrentHashMap<>();
 
     /**
-     * Device/Client ID. Initialization value is <code>{0,0,0,0}</code>. And it
-     * is changed after the {@link #auth() auth} method, that Broadlink devices
-     * will provide a id for this client/device. This is for
-     * {@link #sendCmdPkt(CmdPayload) sendCmdPkt} method.
+     * How old, in milliseconds, a cached state may be to answer a read. 0
+     * disables answering reads from the cache
      */
-    private byte[] id;
+    private volatile long stateCacheTtl = 0;
+
+    /**
+     * Decides when unanswered packets to this device are re-sent
+     */
+    private volatile RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
 
     /**
      * Device type received from discovering devices, or those
@@ -201,14 +170,30 @@ public abstract class BLDevice implements Closeable {
     private final String deviceDesc;
 
     /**
-     * Specific datagram socket for this instance, to reuse address.
+     * Transport shared with other instances, used to send and receive packets
      */
-    private DatagramSocket sock;
+    private final DatagramTransport transport;
 
     /**
      * Target device host
      */
-    private final String host;
+    private volatile String host;
+
+    /**
+     * Address of {@link #host}, resolved when the host is set. It stays
+     * unresolved if the lookup failed, until a later lookup succeeds.
+     */
+    private volatile InetSocketAddress address;
+
+    /**
+     * Guards changes of {@link #host} and {@link #address}
+     */
+    private final Object addressLock = new Object();
+
+    /**
+     * Whether a lookup of an unresolved {@link #address} is running
+     */
+    private final AtomicBoolean resolving = new AtomicBoolean();
 
     /**
      * Target device MAC, using {@link com.github.mob41.blapi.mac.Mac}
@@ -217,15 +202,55 @@ public abstract class BLDevice implements Closeable {
     private Mac mac;
     
     /**
-     * AES decryption object
+     * Session with {@link #INITIAL_KEY the initial key} and ID
+     * <code>{0,0,0,0}</code>, which the auth handshake is sent with
      */
-    private AES aes = null;
-    
+    private final Session initialSession;
+
+    /**
+     * The current session. It is replaced as a whole by the
+     * {@link #auth() auth} method, so a packet is never encoded with the key
+     * of one session and the ID of another.
+     */
+    private final AtomicReference<Session> session;
+
+    /**
+     * Guards the start of a handshake, so that concurrent callers share one
+     */
+    private final Object authLock = new Object();
+
     /**
-     * flag to denote this object alreay authorized.
+     * The handshake in flight, <code>null</code> if none
      */
-    private boolean alreadyAuthorized;
+    private CompletableFuture<Boolean> authInFlight;
+
+    /**
+     * Notified when the session key and ID change
+     */
+    private volatile SessionListener sessionListener;
     
+    /**
+     * Decodes a response frame into a typed result. Shared by the blocking
+     * and the asynchronous variant of each device command. The frame is only
+     * valid while <code>parse</code> runs.
+     *
+     * @param <T>
+     *            Result type
+     */
+    @FunctionalInterface
+    public static interface ResponseParser<T> {
+        T parse(ResponseFrame frame) throws Exception;
+    }
+
+    /**
+     * Notified when a device negotiates a new session or loses the one it
+     * had, e.g. to persist it
+     */
+    @FunctionalInterface
+    public static interface SessionListener {
+        void onSessionChanged(BLDevice device);
+    }
+
     /**
      * Constructs a <code>BLDevice</code>, with a device type (constants),
      * hostname and MAC address
@@ -240,34 +265,140 @@ public abstract class BLDevice implements Closeable {
      *            MAC address of target Broadlink device
      */
     protected BLDevice(short deviceType, String deviceDesc, String host, Mac mac) {
-        key = INITIAL_KEY;
-        id = new byte[] { 0, 0, 0, 0 };
+        this(deviceType, deviceDesc, host, mac, DatagramTransport.getDefault());
+    }
 
-        pktCount = new Random().nextInt(0xffff);
+    /**
+     * Constructs a <code>BLDevice</code>, with a device type (constants),
+     * hostname, MAC address and the transport to send packets through
+     * 
+     * @param deviceType
+     *            Device type constants (<code>BLDevice.DEV_*</code>)
+     * @param deviceDesc
+     *            Friendly device description
+     * @param host
+     *            Hostname of target Broadlink device
+     * @param mac
+     *            MAC address of target Broadlink device
+     * @param transport
+     *            Transport used to communicate with the device
+     */
+    protected BLDevice(short deviceType, String deviceDesc, String host, Mac mac, DatagramTransport transport) {
+        pktCount = new AtomicInteger(new Random().nextInt(0xffff));
 
         this.deviceType = deviceType;
         this.deviceDesc = deviceDesc;
         
         this.host = host;
+        this.address = host == null ? null : new InetSocketAddress(host, 80);
         this.mac = mac;
+        this.transport = transport;
 
-        try {
-            sock = new DatagramSocket();
-            sock.setReuseAddress(true);
-            sock.setBroadcast(true);
-        } catch (SocketException e) {
-            throw new BLApiRuntimeException(e);
-        }
-        aes = new AES(INITIAL_IV, key);
-        alreadyAuthorized = false;
+        initialSession = new Session(mac, INITIAL_IV, INITIAL_KEY, new byte[] { 0, 0, 0, 0 }, false);
+        session = new AtomicReference<>(initialSession);
     }
 
     /**
-     * Releases the resources of this <code>BLDevice</code>
+     * Releases the resources of this <code>BLDevice</code>. The shared
+     * transport is left open for the other devices.
      */
     @Override
     public void close() {
-        sock.close();
+        log.debug("close - device {} released", mac);
+    }
+
+    /**
+     * Returns the number of command packets allowed in flight at the same
+     * time
+     * 
+     * @return The in-flight window size
+     */
+    public int getMaxInFlight() {
+        return window.getLimit();
+    }
+
+    /**
+     * Sets the number of command packets allowed in flight at the same time.
+     * Further commands wait without blocking a thread until an earlier one
+     * completes. Defaults to {@link #DEFAULT_MAX_IN_FLIGHT}; devices that
+     * accept back-to-back commands can be given a larger window.
+     * 
+     * @param maxInFlight
+     *            The in-flight window size, at least 1
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        window.setLimit(maxInFlight);
+    }
+
+    /**
+     * Returns how old a cached state may be to answer a read
+     * 
+     * @return The staleness bound in milliseconds, 0 if reads always go to
+     *         the device
+     */
+    public long getStateCacheTtl() {
+        return stateCacheTtl;
+    }
+
+    /**
+     * Sets how old the last observed state of this device may be to answer
+     * a read without a round trip. The state is observed by reads and by
+     * successful setters, so a read after a write is answered from memory.
+     * Disabled (0) by default.
+     * 
+     * @param ttl
+     *            The staleness bound in milliseconds, 0 to always read from
+     *            the device
+     */
+    public void setStateCacheTtl(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("State cache TTL must not be negative: " + ttl);
+        }
+        this.stateCacheTtl = ttl;
+    }
+
+    /**
+     * Forgets the state observed from this device, so that the next reads go
+     * to the device. Useful when the device may have been changed by another
+     * controller, e.g. its own buttons or app.
+     */
+    public void invalidateStateCache() {
+        stateCache.clear();
+    }
+
+    /**
+     * Returns the policy deciding when unanswered packets are re-sent
+     * 
+     * @return The retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy deciding when unanswered packets are re-sent. Defaults
+     * to {@link RetryPolicy#DEFAULT}, which re-sends every second. A stateful
+     * policy such as
+     * {@link com.github.mob41.blapi.net.AdaptiveRetryPolicy AdaptiveRetryPolicy}
+     * must not be shared with other devices.
+     * 
+     * @param retryPolicy
+     *            The retry policy
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new NullPointerException("retryPolicy");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns the transport this device sends its packets through
+     * 
+     * @return The transport
+     */
+    public DatagramTransport getTransport() {
+        return transport;
     }
 
     /**
@@ -288,6 +419,29 @@ public abstract class BLDevice implements Closeable {
         return host;
     }
 
+    /**
+     * Points this device at a new hostname / IP address, e.g. when discovery
+     * finds it has moved. A hostname is resolved here, on the calling thread,
+     * and not for every packet.
+     * 
+     * @param host
+     *            The new hostname / IP address
+     */
+    public void setHost(String host) {
+        if (host == null) {
+            throw new NullPointerException("host");
+        }
+        if (host.equals(this.host)) {
+            return;
+        }
+        InetSocketAddress resolved = new InetSocketAddress(host, 80);
+        synchronized (addressLock) {
+            log.debug("setHost {} moved from {} to {}", mac, this.host, resolved);
+            this.host = host;
+            address = resolved;
+        }
+    }
+
     /**
      * Returns this Broadlink device's MAC address
      * 
@@ -305,6 +459,108 @@ public abstract class BLDevice implements Closeable {
         return deviceDesc;
     }
 
+    /**
+     * Returns whether this device holds a session accepted by the device, either
+     * negotiated by {@link #auth() auth} or restored by
+     * {@link #restoreSession(byte[], byte[], int) restoreSession}
+     * 
+     * @return Whether the device is authenticated
+     */
+    public boolean isAuthenticated() {
+        return session.get().isAuthenticated();
+    }
+
+    /**
+     * Returns the current session. Packets encoded with it carry its key and
+     * ID, even if a new session replaces it meanwhile.
+     * 
+     * @return The current session
+     */
+    public Session getSession() {
+        return session.get();
+    }
+
+    /**
+     * Returns the session key negotiated with the device
+     * 
+     * @return A copy of the 16-byte key, {@link #INITIAL_KEY the initial key}
+     *         if not authenticated
+     */
+    public byte[] getSessionKey() {
+        return session.get().getKey();
+    }
+
+    /**
+     * Returns the session ID given by the device
+     * 
+     * @return A copy of the 4-byte ID, <code>{0,0,0,0}</code> if not
+     *         authenticated
+     */
+    public byte[] getSessionId() {
+        return session.get().getId();
+    }
+
+    /**
+     * Returns the packet counter, which the counter of the next command
+     * packet follows
+     * 
+     * @return The packet counter
+     */
+    public int getPacketCount() {
+        return pktCount.get() & 0xffff;
+    }
+
+    /**
+     * Resumes a session negotiated earlier, e.g. by another run of the
+     * application, so that commands can be sent without an {@link #auth()
+     * auth} handshake. If the device no longer accepts the session, a new one
+     * is negotiated when the device rejects a command.
+     * 
+     * @param key
+     *            The 16-byte session key
+     * @param id
+     *            The 4-byte session ID
+     * @param packetCount
+     *            Packet counter, as returned by {@link #getPacketCount()}
+     */
+    public void restoreSession(byte[] key, byte[] id, int packetCount) {
+        Session restored = new Session(mac, INITIAL_IV, key, id, true);
+        pktCount.set(packetCount & 0xffff);
+        session.set(restored);
+        log.debug("restoreSession Session of {} restored", mac);
+    }
+
+    /**
+     * Returns the listener notified when the session changes
+     * 
+     * @return The session listener, or <code>null</code>
+     */
+    public SessionListener getSessionListener() {
+        return sessionListener;
+    }
+
+    /**
+     * Sets the listener notified when this device negotiates a new session or
+     * the device rejects the current one
+     * 
+     * @param sessionListener
+     *            The session listener, or <code>null</code> for none
+     */
+    public void setSessionListener(SessionListener sessionListener) {
+        this.sessionListener = sessionListener;
+    }
+
+    private void fireSessionChanged() {
+        SessionListener l = sessionListener;
+        if (l != null) {
+            try {
+                l.onSessionChanged(this);
+            } catch (RuntimeException e) {
+                log.warn("Session listener failed", e);
+            }
+        }
+    }
+
     /**
      * Compatibility with previous code
      * @return Boolean whether this method is success or not
@@ -323,65 +579,263 @@ public abstract class BLDevice implements Closeable {
      *             If I/O goes wrong
      */
     public boolean auth(boolean reauth) throws IOException {
+        try {
+            return DatagramTransport.await(authAsync(reauth));
+        } catch (SocketTimeoutException e) {
+            log.error("auth Received 0 bytes on initial request.");
+            return false;
+        }
+    }
+
+    /**
+     * Authenticates with the broadlink device without blocking. Concurrent
+     * callers share a single handshake: while one is in flight, it is
+     * returned instead of sending another.
+     * 
+     * @param reauth
+     *            Setting this to true forces to perform re-auth with the
+     *            device, unless a handshake is already in flight
+     * @return A future of whether the handshake succeeded. It fails with a
+     *         <code>SocketTimeoutException</code> if the device does not
+     *         respond in time.
+     */
+    public CompletableFuture<Boolean> authAsync(boolean reauth) {
+        return authAsync(reauth, AUTH_TIMEOUT);
+    }
+
+    private CompletableFuture<Boolean> authAsync(boolean reauth, int timeout) {
         log.debug("auth Authentication method starts");
-        if(alreadyAuthorized && !reauth) {
-        	log.debug("auth Already Authorized.");
-        	return true;
+        synchronized (authLock) {
+            if (authInFlight != null) {
+                log.debug("auth Joining the handshake in flight.");
+                return authInFlight;
+            }
+            if (session.get().isAuthenticated() && !reauth) {
+                log.debug("auth Already Authorized.");
+                return CompletableFuture.completedFuture(true);
+            }
+
+            AuthCmdPayload sendPayload = new AuthCmdPayload();
+            if (log.isDebugEnabled()) {
+                byte[] authData = sendPayload.getPayload().getData();
+                log.debug("auth Sending CmdPacket with AuthCmdPayload: cmd={} len={}",
+                        Integer.toHexString(sendPayload.getPacketType()), authData.length);
+                log.debug("auth AuthPayload initial bytes to send: {}", DatatypeConverter.printHexBinary(authData));
+            }
+
+            // the handshake always uses the initial key, which a device that
+            // forgot the session still understands
+            CompletableFuture<Boolean> handshake = exchange(timeout, sendPayload, this::parseAuth, initialSession,
+                    Priority.INTERACTIVE);
+            authInFlight = handshake;
+            handshake.whenComplete((r, e) -> {
+                synchronized (authLock) {
+                    if (authInFlight == handshake) {
+                        authInFlight = null;
+                    }
+                }
+            });
+            return handshake;
         }
+    }
+
+    /**
+     * Authenticates a fleet of devices, blocking until every handshake ended
+     * or the deadline passed
+     * 
+     * @param devices
+     *            The devices to authenticate. Devices that already hold a
+     *            session are not authenticated again
+     * @param parallelism
+     *            Maximum number of handshakes in flight
+     * @param deadline
+     *            Time allowed for the whole fleet, in ms
+     * @return The outcome of each device and the handshake latencies
+     * @throws IOException
+     *             If interrupted while waiting
+     * @see #authenticateAllAsync(Collection, int, int)
+     */
+    public static AuthReport authenticateAll(Collection<? extends BLDevice> devices, int parallelism, int deadline)
+            throws IOException {
+        return DatagramTransport.await(authenticateAllAsync(devices, parallelism, deadline));
+    }
 
-        AuthCmdPayload sendPayload = new AuthCmdPayload();
-        log.debug("auth Sending CmdPacket with AuthCmdPayload: cmd={} len={}", 
-                Integer.toHexString(sendPayload.getPacketType()), sendPayload.getPayload().getData().length);
+    /**
+     * Authenticates a fleet of devices without blocking. Handshakes are
+     * pipelined over the shared transport, up to <code>parallelism</code> at
+     * a time, so the fleet takes about as long as its slowest devices rather
+     * than the sum of all of them. Each handshake times out when the deadline
+     * passes, and devices whose handshake has not started by then are
+     * reported as {@link AuthOutcome#TIMEOUT TIMEOUT} without being started.
+     * Devices that already hold a session are reported as
+     * {@link AuthOutcome#OK OK} and add no latency.
+     * 
+     * @param devices
+     *            The devices to authenticate. Devices that already hold a
+     *            session are not authenticated again
+     * @param parallelism
+     *            Maximum number of handshakes in flight
+     * @param deadline
+     *            Time allowed for the whole fleet, in ms
+     * @return A future of the outcome of each device and the handshake
+     *         latencies
+     */
+    public static CompletableFuture<AuthReport> authenticateAllAsync(Collection<? extends BLDevice> devices,
+            int parallelism, int deadline) {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(deadline);
+        InFlightWindow window = new InFlightWindow(parallelism);
+        LatencyHistogram latencies = new LatencyHistogram();
+
+        List<BLDevice> fleet = new ArrayList<>(devices);
+        AuthOutcome[] outcomes = new AuthOutcome[fleet.size()];
+        // filled in here while expiry passes read it from other threads
+        AtomicReferenceArray<CompletableFuture<?>> handshakes = new AtomicReferenceArray<>(fleet.size());
+        // a handshake is claimed once, either to start it or to expire it
+        AtomicIntegerArray claimed = new AtomicIntegerArray(fleet.size());
+        Runnable expireWaiting = () -> {
+            for (int i = 0; i < handshakes.length(); i++) {
+                CompletableFuture<?> handshake = handshakes.get(i);
+                if (handshake != null && claimed.compareAndSet(i, 0, 1)) {
+                    outcomes[i] = AuthOutcome.TIMEOUT;
+                    handshake.complete(null);
+                }
+            }
+        };
+
+        for (int i = 0; i < fleet.size(); i++) {
+            BLDevice device = fleet.get(i);
+            int index = i;
+            if (device.isAuthenticated()) {
+                claimed.set(i, 1);
+                outcomes[i] = AuthOutcome.OK;
+                handshakes.set(i, CompletableFuture.completedFuture(null));
+                continue;
+            }
+            if (TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) <= 0) {
+                claimed.set(i, 1);
+                outcomes[i] = AuthOutcome.TIMEOUT;
+                handshakes.set(i, CompletableFuture.completedFuture(null));
+                continue;
+            }
+            handshakes.set(i, window.submit(() -> {
+                long begin = System.nanoTime();
+                long remaining = TimeUnit.NANOSECONDS.toMillis(end - begin);
+                if (!claimed.compareAndSet(index, 0, 1) || remaining <= 0) {
+                    // expired while its slot was being taken
+                    outcomes[index] = AuthOutcome.TIMEOUT;
+                    expireWaiting.run();
+                    return CompletableFuture.completedFuture(null);
+                }
+                return device.authAsync(false, (int) Math.min(AUTH_TIMEOUT, remaining)).handle((ok, e) -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause == null) {
+                        outcomes[index] = ok ? AuthOutcome.OK : AuthOutcome.DECRYPT_FAILURE;
+                        if (ok) {
+                            latencies.record(System.nanoTime() - begin);
+                        }
+                    } else if (cause instanceof SocketTimeoutException) {
+                        outcomes[index] = AuthOutcome.TIMEOUT;
+                    } else {
+                        log.warn("authenticateAll Handshake with {} failed", device.getHost(), cause);
+                        outcomes[index] = AuthOutcome.ERROR;
+                    }
+                    if (TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) <= 0) {
+                        // none of the waiting handshakes has time left
+                        expireWaiting.run();
+                    }
+                    return null;
+                });
+            }));
+        }
+        if (TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) <= 0) {
+            // an expiry pass may have run before the last handshakes were
+            // registered
+            expireWaiting.run();
+        }
 
-        log.debug("auth AuthPayload initial bytes to send: {}", DatatypeConverter.printHexBinary(sendPayload.getPayload().getData()));
+        CompletableFuture<?>[] all = new CompletableFuture<?>[handshakes.length()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = handshakes.get(i);
+        }
+        return CompletableFuture.allOf(all).thenApply(v -> {
+            Map<BLDevice, AuthOutcome> result = new LinkedHashMap<>();
+            for (int i = 0; i < outcomes.length; i++) {
+                result.put(fleet.get(i), outcomes[i]);
+            }
+            AuthReport report = new AuthReport(result, latencies,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            log.debug("authenticateAll {}", report);
+            return report;
+        });
+    }
 
-        DatagramPacket recvPack = sendCmdPkt(10000, 2048, sendPayload);
+    /**
+     * Completes once this device holds a session, negotiating one if needed
+     */
+    private CompletableFuture<Void> authenticated() {
+        if (session.get().isAuthenticated()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return authAsync(false).thenApply(ok -> {
+            if (!ok) {
+                throw new BLApiRuntimeException("Cannot authenticate with device " + mac);
+            }
+            return null;
+        });
+    }
 
-        byte[] data = recvPack.getData();
-        
-        if(data.length <= 0) {
-            log.error("auth Received 0 bytes on initial request.");
-            alreadyAuthorized = false;
-            return false;
+    /**
+     * Drops the session a command was rejected with, unless a new session
+     * has been negotiated meanwhile
+     */
+    private void onSessionRejected(Session rejected, int err) {
+        if (rejected.isAuthenticated() && session.compareAndSet(rejected, initialSession)) {
+            log.warn("Device {} rejected the session (err {}), re-auth needed", mac, err);
+            fireSessionChanged();
         }
+    }
 
-        log.debug("auth recv encrypted data bytes ({}) after initial req: {}", data.length, DatatypeConverter.printHexBinary(data));
+    private boolean parseAuth(ResponseFrame frame) {
+        log.debug("auth recv encrypted data bytes ({}) after initial req: {}", frame.getLength(), frame);
 
-        byte[] payload = null;
+        ByteBuffer payload = null;
         try {
             log.debug("auth Decrypting encrypted data");
 
-            payload = decryptFromDeviceMessage(data);
+            payload = decryptPayload(frame);
 
-            log.debug("auth Decrypted. len={}", payload.length);
+            log.debug("auth Decrypted. len={}", payload.remaining());
 
         } catch (Exception e) {
             log.error("auth Received datagram decryption error. Aborting method", e);
-            alreadyAuthorized = false;
+            session.set(initialSession);
             return false;
         }
 
-        log.debug("auth Packet received payload bytes: {}", DatatypeConverter.printHexBinary(payload));
-
-        key = subbytes(payload, 0x04, 0x14);
+        log.debug("auth Packet received payload bytes: {}", frame);
 
-        log.debug("auth Packet received key bytes: {}", DatatypeConverter.printHexBinary(key));
+        byte[] key = new byte[0x10];
+        payload.position(0x04);
+        payload.get(key);
 
-        if (key.length % 16 != 0) {
-            log.error("auth Received key len is not a multiple of 16! Aborting");
-            alreadyAuthorized = false;
-            return false;
+        if (log.isDebugEnabled()) {
+            log.debug("auth Packet received key bytes: {}", DatatypeConverter.printHexBinary(key));
         }
 
-        // recreate AES object with new key
-        aes = new AES(INITIAL_IV, key);
+        byte[] id = new byte[0x04];
+        payload.position(0x00);
+        payload.get(id);
 
-        id = subbytes(payload, 0x00, 0x04);
+        if (log.isDebugEnabled()) {
+            log.debug("auth Packet received id bytes: {} with ID len={}", DatatypeConverter.printHexBinary(id), id.length);
+        }
 
-        log.debug("auth Packet received id bytes: {} with ID len={}", DatatypeConverter.printHexBinary(id), id.length);
+        // publish the new key and ID together
+        session.set(new Session(mac, INITIAL_IV, key, id, true));
 
         log.debug("auth End of authentication method");
-        alreadyAuthorized = true;
+        fireSessionChanged();
 
         return true;
     }
@@ -390,9 +844,8 @@ public abstract class BLDevice implements Closeable {
      * Sends a command packet from localhost to Broadlink device, with buffer
      * size 1024 bytes, 10 seconds timeout<br>
      * <br>
-     * Before any commands to be sent to the device, {@link #auth() auth} must
-     * be ran first in order to authenticate with the device and gain a device
-     * ID, encryption key and IV.
+     * If the device is not authenticated yet, {@link #auth() auth} is ran
+     * first to gain a device ID and encryption key.
      * 
      * @param cmdPayload
      *            Command data to be sent
@@ -409,9 +862,8 @@ public abstract class BLDevice implements Closeable {
      * Sends a command packet from localhost to Broadlink device, with default
      * buffer size 1024 bytes<br>
      * <br>
-     * Before any commands to be sent to the device, {@link #auth() auth} must
-     * be ran first in order to authenticate with the device and gain a device
-     * ID, encryption key and IV.
+     * If the device is not authenticated yet, {@link #auth() auth} is ran
+     * first to gain a device ID and encryption key.
      * 
      * @param timeout
      *            Socket read timeout
@@ -423,15 +875,14 @@ public abstract class BLDevice implements Closeable {
      *             Problems when sending the packet
      */
     public DatagramPacket sendCmdPkt(int timeout, CmdPayload cmdPayload) throws IOException {
-        return sendCmdPkt(InetAddress.getLocalHost(), 0, timeout, 1024, cmdPayload);
+        return sendCmdPktBlocking(timeout, cmdPayload);
     }
 
     /**
      * Sends a command packet from localhost to Broadlink device<br>
      * <br>
-     * Before any commands to be sent to the device, {@link #auth() auth} must
-     * be ran first in order to authenticate with the device and gain a device
-     * ID, encryption key and IV.
+     * If the device is not authenticated yet, {@link #auth() auth} is ran
+     * first to gain a device ID and encryption key.
      * 
      * @param timeout
      *            Socket read timeout
@@ -445,29 +896,54 @@ public abstract class BLDevice implements Closeable {
      *             Problems when sending the packet
      */
     public DatagramPacket sendCmdPkt(int timeout, int bufSize, CmdPayload cmdPayload) throws IOException {
-        return sendCmdPkt(InetAddress.getLocalHost(), 0, timeout, bufSize, cmdPayload);
+        return sendCmdPktBlocking(timeout, cmdPayload);
     }
     
+    /**
+     * Assembles the un-encrypted payload of a command in an array, for the
+     * {@link DatagramPacket} path and the wire tap. Parsed commands are
+     * encoded straight into a pooled buffer instead, laid out alike.
+     * 
+     * @param cmdPayload
+     *            Command data to be sent
+     * @return The payload
+     */
     protected byte[] createPayload(CmdPayload cmdPayload) {
-        ByteBuffer b = ByteBuffer.allocate(4+cmdPayload.getPayload().getData().length);
+        byte[] data = cmdPayload.getPayload().getData();
+        boolean prefixed = isPayloadLengthPrefixed();
+        ByteBuffer b = ByteBuffer.allocate(CmdPacketEncoder.getPayloadLength(data.length, prefixed));
         b.order(ByteOrder.LITTLE_ENDIAN);
+        if (prefixed) {
+            b.putShort((short) (4 + data.length));
+        }
         b.putInt(cmdPayload.getCommand());
-        b.put(cmdPayload.getPayload().getData());
+        b.put(data);
         return b.array();
     }
 
     /**
-     * Binds to a specific IP address and sends a command packet to Broadlink
-     * device<br>
+     * Returns whether this device expects command payloads to start with
+     * their length, as a little-endian short
+     * 
+     * @return <code>false</code> unless overridden
+     */
+    protected boolean isPayloadLengthPrefixed() {
+        return false;
+    }
+
+    /**
+     * Sends a command packet to Broadlink device through the transport of
+     * this device, like {@link #sendCmdPkt(int, int, CmdPayload)}. The source
+     * address and port are ignored: packets leave from the address the
+     * transport is bound to.<br>
      * <br>
-     * Before any commands to be sent to the device, {@link #auth() auth} must
-     * be ran first in order to authenticate with the device and gain a device
-     * ID, encryption key and IV.
+     * If the device is not authenticated yet, {@link #auth() auth} is ran
+     * first to gain a device ID and encryption key.
      * 
      * @param sourceIpAddr
-     *            Bind the socket to this IP address
+     *            Ignored
      * @param sourcePort
-     *            Bind the socket to this port
+     *            Ignored
      * @param timeout
      *            Socket read timeout
      * @param bufSize
@@ -478,211 +954,786 @@ public abstract class BLDevice implements Closeable {
      *         information.
      * @throws IOException
      *             Problems when sending the packet
+     * @deprecated The source address is ignored. Use
+     *             {@link #sendCmdPkt(int, int, CmdPayload)}, and a
+     *             {@link DatagramTransport} bound to the source address to
+     *             choose where packets leave from.
      */
+    @Deprecated
     public DatagramPacket sendCmdPkt(InetAddress sourceIpAddr, int sourcePort, int timeout, int bufSize,
             CmdPayload cmdPayload) throws IOException {
-        CmdPacket cmdPkt = new CmdPacket(mac, pktCount++, id, aes, cmdPayload.getPacketType(), createPayload(cmdPayload));
-        log.debug("sendCmdPkt - Send Command Packet bytes: {}", DatatypeConverter.printHexBinary(cmdPkt.getData()));
-        return sendPkt(cmdPkt, InetAddress.getByName(host), 80, timeout, bufSize);
+        return sendCmdPktBlocking(timeout, cmdPayload);
+    }
+
+    private DatagramPacket sendCmdPktBlocking(int timeout, CmdPayload cmdPayload) throws IOException {
+        try {
+            return DatagramTransport.await(sendCmdPktAsync(timeout, cmdPayload));
+        } catch (SocketTimeoutException e) {
+            log.warn("sendCmdPkt - no response from {} within {} ms", host, timeout);
+            return new DatagramPacket(new byte[0], 0, getDeviceAddress());
+        }
     }
 
     /**
-     * Creates a Broadlink device client
+     * Sends a command packet to Broadlink device without blocking, with 10
+     * seconds timeout
      * 
-     * @param deviceType
-     *            Device type constant (<code>BLDevice.DEV_*</code>)
-     * @param host
-     *            Target Broadlink device hostname
-     * @param mac
-     *            Target Broadlink device MAC address
-     * @return A BLDevice client
+     * @param cmdPayload
+     *            Command data to be sent
+     * @return A future of the {@link DatagramPacket} containing the byte data
+     *         and sender host information. It fails with a
+     *         <code>SocketTimeoutException</code> if the device does not
+     *         respond in time.
      */
-    public static BLDevice createInstance(short deviceType, String host, Mac mac) {
-        return CONFIG.stream()
-                .flatMap(c -> c.createIfMatch(deviceType, host, mac))
-                .findAny()
-                .orElseThrow(() -> new BLApiRuntimeException("Cannot found deviceType: "+deviceType));
+    public CompletableFuture<DatagramPacket> sendCmdPktAsync(CmdPayload cmdPayload) {
+        return sendCmdPktAsync(10000, cmdPayload);
     }
 
     /**
-     * Discover Broadlink devices in the local network, with
-     * {@link #DEFAULT_TIMEOUT default timeout}
+     * Sends a command packet to Broadlink device without blocking. If the
+     * device already has {@link #getMaxInFlight() the maximum number} of
+     * commands in flight, the packet is sent once an earlier one completes,
+     * and the timeout starts from then.<br>
+     * <br>
+     * If the device rejects the session, a new one is negotiated and the
+     * packet is sent once more. The response to that second packet is
+     * returned as it is, even if the device rejects it again.
      * 
-     * @return An array of <code>BLDevice</code> in the network
-     * @throws IOException
-     *             Problems when discovering
+     * @param timeout
+     *            Response timeout
+     * @param cmdPayload
+     *            Command data to be sent
+     * @return A future of the {@link DatagramPacket} containing the byte data
+     *         and sender host information. It fails with a
+     *         <code>SocketTimeoutException</code> if the device does not
+     *         respond in time.
      */
-    public static List<BLDevice> discoverDevices() throws IOException {
-        return discoverDevices(DEFAULT_TIMEOUT);
+    public CompletableFuture<DatagramPacket> sendCmdPktAsync(int timeout, CmdPayload cmdPayload) {
+        return retryOnRejection(() -> whenAuthenticated(() -> sendRawCmdPkt(timeout, cmdPayload, true)),
+                () -> whenAuthenticated(() -> sendRawCmdPkt(timeout, cmdPayload, false)));
     }
 
     /**
-     * Discover Broadlink devices in the local network
+     * Sends a command packet with the current session and returns the raw
+     * response. A response rejecting the session drops it.
+     * 
+     * @param failOnRejection
+     *            Whether to fail with a {@link BLApiAuthException} when the
+     *            device rejects the session, rather than returning the
+     *            response
+     */
+    private CompletableFuture<DatagramPacket> sendRawCmdPkt(int timeout, CmdPayload cmdPayload,
+            boolean failOnRejection) {
+        return window.submit(() -> {
+            try {
+                InetSocketAddress dest = getDeviceAddress();
+                Session used = session.get();
+                CompletableFuture<DatagramPacket> sent = sendPktAsync(createCmdPacket(used, cmdPayload, dest),
+                        dest.getAddress(), dest.getPort(), timeout);
+                CompletableFuture<DatagramPacket> checked = new CompletableFuture<>();
+                checked.whenComplete((r, e) -> {
+                    if (e != null) {
+                        sent.cancel(false);
+                    }
+                });
+                sent.whenComplete((pkt, e) -> {
+                    if (e != null) {
+                        checked.completeExceptionally(unwrap(e));
+                        return;
+                    }
+                    if (pkt.getLength() >= ResponseFrame.PAYLOAD_OFFSET) {
+                        ResponseFrame frame = new ResponseFrame(
+                                ByteBuffer.wrap(pkt.getData(), pkt.getOffset(), pkt.getLength()));
+                        if (frame.isAuthError()) {
+                            onSessionRejected(used, frame.getErr());
+                            if (failOnRejection) {
+                                checked.completeExceptionally(new BLApiAuthException(frame.getErr()));
+                                return;
+                            }
+                        }
+                    }
+                    checked.complete(pkt);
+                });
+                return checked;
+            } catch (IOException | RuntimeException e) {
+                CompletableFuture<DatagramPacket> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        });
+    }
+
+    /**
+     * Starts a step once this device holds a session. Unlike
+     * <code>thenCompose</code>, cancelling or failing the returned future
+     * also cancels the step, so that its packets stop being re-sent.
+     */
+    private <T> CompletableFuture<T> whenAuthenticated(Supplier<CompletableFuture<T>> step) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        authenticated().whenComplete((v, e) -> {
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            if (result.isDone()) {
+                return;
+            }
+            CompletableFuture<T> f;
+            try {
+                f = step.get();
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+                return;
+            }
+            result.whenComplete((r, e2) -> {
+                if (e2 != null) {
+                    f.cancel(false);
+                }
+            });
+            f.whenComplete((r, e2) -> {
+                if (e2 != null) {
+                    result.completeExceptionally(unwrap(e2));
+                } else {
+                    result.complete(r);
+                }
+            });
+        });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private Packet createCmdPacket(Session used, CmdPayload cmdPayload, InetSocketAddress dest) {
+        byte[] payload = createPayload(cmdPayload);
+        int count = pktCount.getAndIncrement();
+        tapPlainPayload(dest, count, payload);
+        ByteBuffer data = ByteBuffer.allocate(CmdPacketEncoder.getEncodedLength(payload.length));
+        used.getEncoder().encode(data, count, cmdPayload.getPacketType(), payload);
+        return data::array;
+    }
+
+    /**
+     * @param count
+     *            Packet count the payload is encoded with, which the encoder
+     *            increments into the counter field
+     */
+    private void tapPlainPayload(InetSocketAddress dest, int count, byte[] payload) {
+        WireTap tap = transport.getWireTap();
+        if (tap != WireTap.NONE) {
+            try {
+                tap.onPlainPayload(dest, (count + 1) & 0xffff, ByteBuffer.wrap(payload));
+            } catch (RuntimeException e) {
+                log.warn("Wire tap failed", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the resolved address of this device. Called when packets are
+     * sent, possibly from the transport thread, so it never looks the host
+     * up itself: an unresolved host fails the packet and is looked up again
+     * in the background.
+     */
+    private InetSocketAddress getDeviceAddress() throws UnknownHostException {
+        InetSocketAddress a = address;
+        if (a == null) {
+            throw new UnknownHostException("No host set for device " + mac);
+        }
+        if (a.isUnresolved()) {
+            resolveLater(a);
+            throw new UnknownHostException(a.getHostString());
+        }
+        return a;
+    }
+
+    private void resolveLater(InetSocketAddress unresolved) {
+        if (!resolving.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                InetSocketAddress resolved = new InetSocketAddress(unresolved.getHostString(), 80);
+                synchronized (addressLock) {
+                    // unless setHost() changed the host meanwhile
+                    if (address == unresolved && !resolved.isUnresolved()) {
+                        address = resolved;
+                        log.debug("Resolved {} to {}", host, resolved);
+                    }
+                }
+            } finally {
+                resolving.set(false);
+            }
+        });
+    }
+
+    /**
+     * Sends a command packet and decodes its response, blocking the caller
      * 
      * @param timeout
-     *            Socket read timeout
-     * @return An array of <code>BLDevice</code> in the network
-     * @throws IOException
-     *             Problems when discovering
+     *            Response timeout
+     * @param cmdPayload
+     *            Command data to be sent
+     * @param parser
+     *            Decoder of the response
+     * @param <T>
+     *            Result type
+     * @return The decoded response
+     * @throws Exception
+     *             Problems on sending the packet or decoding the response
      */
-    public static List<BLDevice> discoverDevices(int timeout) throws IOException {
-        return discoverDevices(InetAddress.getLocalHost(), 0, timeout);
+    public <T> T sendCmdPkt(int timeout, CmdPayload cmdPayload, ResponseParser<T> parser) throws Exception {
+        return sendCmdPkt(timeout, cmdPayload, parser, Priority.INTERACTIVE);
     }
 
     /**
-     * Discover Broadlink devices in the network, binded with a specific IP
-     * address
+     * Sends a command packet in a priority lane and decodes its response,
+     * blocking the caller
      * 
-     * @param sourceIpAddr
-     *            The IP address to be binded
-     * @param sourcePort
-     *            The port to be binded
      * @param timeout
-     *            Socket read timeout
-     * @return An array of <code>BLDevice</code> in the network
-     * @throws IOException
-     *             Problems when discovering
+     *            Response timeout
+     * @param cmdPayload
+     *            Command data to be sent
+     * @param parser
+     *            Decoder of the response
+     * @param priority
+     *            Lane the command waits in while the device is busy
+     * @param <T>
+     *            Result type
+     * @return The decoded response
+     * @throws Exception
+     *             Problems on sending the packet or decoding the response
      */
-    public static List<BLDevice> discoverDevices(InetAddress sourceIpAddr, int sourcePort, int timeout) throws IOException {
-        log.debug("Discovering devices");
+    public <T> T sendCmdPkt(int timeout, CmdPayload cmdPayload, ResponseParser<T> parser, Priority priority)
+            throws Exception {
+        return getResult(sendCmdPktAsync(timeout, cmdPayload, parser, priority));
+    }
 
-        List<BLDevice> devices = new ArrayList<>(50);
+    /**
+     * Waits for a command future, unwrapping its failure
+     * 
+     * @param future
+     *            Future of a command sent to this device
+     * @param <T>
+     *            Result type
+     * @return The decoded response
+     * @throws Exception
+     *             Problems on sending the packet or decoding the response
+     */
+    protected static <T> T getResult(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
 
-        log.debug("Constructing DiscoveryPacket");
+    /**
+     * Starts a read, or joins the identical read already in flight to this
+     * device. Concurrent callers asking for the same data share one exchange
+     * and receive the same decoded result, so the result must not be
+     * mutated. A read started after the shared one completed goes to the
+     * device again.<br>
+     * <br>
+     * Each caller receives its own future: cancelling it does not abort the
+     * exchange the other callers are waiting for.
+     * 
+     * @param key
+     *            Identifies the read, e.g. the name of the getter. Reads with
+     *            equal keys must send the same command and decode the
+     *            response the same way
+     * @param read
+     *            Starts the read if none with this key is in flight
+     * @param <T>
+     *            Result type
+     * @return A future of the decoded response
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> CompletableFuture<T> coalesce(Object key, Supplier<CompletableFuture<T>> read) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> shared = (CompletableFuture<T>) sharedReads.putIfAbsent(key, created);
+        if (shared == null) {
+            shared = created;
+            CompletableFuture<T> f;
+            try {
+                f = read.get();
+            } catch (RuntimeException e) {
+                f = new CompletableFuture<>();
+                f.completeExceptionally(e);
+            }
+            f.whenComplete((r, e) -> {
+                // later callers must not join a completed read
+                sharedReads.remove(key, created);
+                if (e != null) {
+                    created.completeExceptionally(e instanceof CompletionException && e.getCause() != null
+                            ? e.getCause() : e);
+                } else {
+                    created.complete(r);
+                }
+            });
+        } else {
+            log.debug("Joining the {} read in flight to {}", key, mac);
+        }
+        return shared.thenApply(r -> r);
+    }
 
-        DiscoveryPacket dpkt = new DiscoveryPacket(sourceIpAddr, sourcePort);
+    /**
+     * Answers a read from the state cache if the state is fresher than
+     * {@link #getStateCacheTtl()}, or else {@link #coalesce coalesces} it
+     * with the identical read in flight and caches the decoded result.
+     * <code>null</code> results, which devices return on error responses,
+     * are not cached.
+     * 
+     * @param key
+     *            Identifies the read and its cached state
+     * @param read
+     *            Starts the read if it must go to the device
+     * @param <T>
+     *            Result type
+     * @return A future of the decoded response
+     */
+    protected <T> CompletableFuture<T> cachedRead(Object key, Supplier<CompletableFuture<T>> read) {
+        long ttl = stateCacheTtl;
+        if (ttl > 0) {
+            T cached = getCachedState(key, ttl);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        return coalesce(key, () -> {
+            long started = System.nanoTime();
+            return read.get().thenApply(r -> {
+                if (r != null) {
+                    // a write made after this read started wins
+                    stateCache.merge(key, new CachedState(r, started, started),
+                            (old, observed) -> old.changed - observed.changed > 0 ? old : observed);
+                }
+                return r;
+            });
+        });
+    }
 
-        try (DatagramSocket sock = new DatagramSocket(sourcePort, sourceIpAddr)) {
-            sock.setBroadcast(true);
-            sock.setReuseAddress(true);
-    
-            byte[] sendBytes = dpkt.getData();
-            DatagramPacket sendpack = new DatagramPacket(sendBytes, sendBytes.length,
-                    InetAddress.getByName("255.255.255.255"), DISCOVERY_DEST_PORT);
-    
-            log.debug("Sending broadcast");
-    
-            sock.send(sendpack);
-    
-            byte[] receBytes = new byte[DISCOVERY_RECEIVE_BUFFER_SIZE];
-    
-            DatagramPacket recePacket = new DatagramPacket(receBytes, 0, receBytes.length);
-            if (timeout == 0) {
-                log.debug("No timeout was set. Blocking thread until received");
-                log.debug("Waiting for datagrams");
-    
-                sock.receive(recePacket);
-    
-                log.debug("Received. Closing socket");
-    
-                sock.close();
-    
-                String host = recePacket.getAddress().getHostAddress();
-                Mac mac = new Mac(subbytes(receBytes, 0x3a, 0x40));
-                short deviceType = (short) (receBytes[0x34] | receBytes[0x35] << 8);
-    
-                log.debug("Info: host={} mac={} deviceType=0x", host, mac.getMacString(), Integer.toHexString(deviceType));
-                log.debug("Creating BLDevice instance");
-    
-                BLDevice inst = createInstance(deviceType, host, mac);
-    
-                if (inst != null) {
-                    log.debug("Adding to found devices list");
-    
-                    devices.add(inst);
+    /**
+     * Returns a state observed from this device
+     * 
+     * @param key
+     *            Identifies the state
+     * @param maxAge
+     *            How old the state may be, in milliseconds
+     * @param <T>
+     *            State type
+     * @return The state, or <code>null</code> if none was observed within
+     *         <code>maxAge</code>
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T getCachedState(Object key, long maxAge) {
+        CachedState state = stateCache.get(key);
+        if (state == null || state.value == null || System.nanoTime() - state.observed > TimeUnit.MILLISECONDS.toNanos(maxAge)) {
+            return null;
+        }
+        return (T) state.value;
+    }
+
+    /**
+     * Records a state this device was just set to, e.g. by a successful
+     * setter
+     * 
+     * @param key
+     *            Identifies the state
+     * @param value
+     *            The whole new state
+     */
+    protected void putCachedState(Object key, Object value) {
+        long now = System.nanoTime();
+        stateCache.put(key, new CachedState(value, now, now));
+    }
+
+    /**
+     * Changes part of a state observed from this device, e.g. after a
+     * successful setter changed some of its fields. The state keeps the time
+     * it was observed, as its other fields are not any fresher, but reads
+     * started before this change can no longer replace it.
+     * 
+     * @param key
+     *            Identifies the state
+     * @param update
+     *            Returns the new state from the cached one
+     * @param <T>
+     *            State type
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> void updateCachedState(Object key, UnaryOperator<T> update) {
+        stateCache.compute(key, (k, state) -> {
+            long now = System.nanoTime();
+            if (state == null || state.value == null) {
+                // nothing to change, but reads started before must not store
+                // the state they saw
+                return new CachedState(null, now, now);
+            }
+            return new CachedState(update.apply((T) state.value), state.observed, now);
+        });
+    }
+
+    /**
+     * Forgets a state observed from this device, e.g. after a setter failed
+     * and left the device in an unknown state
+     * 
+     * @param key
+     *            Identifies the state
+     */
+    protected void removeCachedState(Object key) {
+        stateCache.remove(key);
+    }
+
+    /**
+     * A state observed from this device, with the {@link System#nanoTime()} it
+     * was observed at and the one it was last changed at
+     */
+    private static final class CachedState {
+
+        /**
+         * The state, or <code>null</code> if it is unknown
+         */
+        private final Object value;
+
+        /**
+         * When the state was read from, or written to, the device. Its age
+         * decides whether it can answer a read.
+         */
+        private final long observed;
+
+        /**
+         * When the state was last read or changed. Decides which of two
+         * racing updates is kept.
+         */
+        private final long changed;
+
+        private CachedState(Object value, long observed, long changed) {
+            this.value = value;
+            this.observed = observed;
+            this.changed = changed;
+        }
+
+    }
+
+    /**
+     * Sends a command packet and decodes its response without blocking
+     * 
+     * @param timeout
+     *            Response timeout
+     * @param cmdPayload
+     *            Command data to be sent
+     * @param parser
+     *            Decoder of the response
+     * @param <T>
+     *            Result type
+     * @return A future of the decoded response
+     */
+    public <T> CompletableFuture<T> sendCmdPktAsync(int timeout, CmdPayload cmdPayload, ResponseParser<T> parser) {
+        return sendCmdPktAsync(timeout, cmdPayload, parser, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Sends a command packet in a priority lane and decodes its response
+     * without blocking. While the device is busy, waiting
+     * {@link Priority#INTERACTIVE interactive} commands are sent before
+     * waiting {@link Priority#BACKGROUND background} ones.
+     * 
+     * @param timeout
+     *            Response timeout
+     * @param cmdPayload
+     *            Command data to be sent
+     * @param parser
+     *            Decoder of the response
+     * @param priority
+     *            Lane the command waits in while the device is busy
+     * @param <T>
+     *            Result type
+     * @return A future of the decoded response
+     */
+    public <T> CompletableFuture<T> sendCmdPktAsync(int timeout, CmdPayload cmdPayload, ResponseParser<T> parser,
+            Priority priority) {
+        Supplier<CompletableFuture<T>> attempt = () -> whenAuthenticated(
+                () -> exchange(timeout, cmdPayload, parser, null, priority));
+        return retryOnRejection(attempt, attempt);
+    }
+
+    /**
+     * Makes a first attempt and, if the device rejects the session, a second
+     * one, which authenticates first
+     * 
+     * @param first
+     *            Starts the first attempt
+     * @param again
+     *            Starts the second attempt
+     */
+    private <T> CompletableFuture<T> retryOnRejection(Supplier<CompletableFuture<T>> first,
+            Supplier<CompletableFuture<T>> again) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> attempt = first.get();
+        result.whenComplete((r, e) -> {
+            if (e != null) {
+                attempt.cancel(false);
+            }
+        });
+        attempt.whenComplete((r, e) -> {
+            if (e == null) {
+                result.complete(r);
+                return;
+            }
+            Throwable cause = unwrap(e);
+            if (!(cause instanceof BLApiAuthException) || result.isDone()) {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            log.debug("Retrying command to {} with a new session", mac);
+            CompletableFuture<T> second = again.get();
+            result.whenComplete((r2, e2) -> {
+                if (e2 != null) {
+                    second.cancel(false);
+                }
+            });
+            second.whenComplete((r2, e2) -> {
+                if (e2 != null) {
+                    result.completeExceptionally(e2);
                 } else {
-                    log.debug("Cannot create instance, returned null, not adding to found devices list");
+                    result.complete(r2);
                 }
-            } else {
-                log.debug("A timeout of {} ms was set. Running loop", timeout);
-    
-                long startTime = System.currentTimeMillis();
-                long elapsed;
-                while ((elapsed = System.currentTimeMillis() - startTime) < timeout) {
-                    log.debug("Elapsed: " + elapsed + " ms");
-                    log.debug("Socket timeout: timeout-elapsed=" + (timeout - elapsed));
-    
-                    sock.setSoTimeout((int) (timeout - elapsed));
-    
-                    try {
-                        log.debug("Waiting for datagrams");
-    
-                        sock.receive(recePacket);
-                    } catch (SocketTimeoutException e) {
-                        log.debug("Socket timed out for " + (timeout - elapsed) + " ms", e);
-    
-                        break;
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Sends a command packet and decodes its response. The response is
+     * decrypted with the session the packet was encoded with.
+     * 
+     * @param fixed
+     *            Session to send the packet with, or <code>null</code> for
+     *            the current session at the time the packet is sent. With the
+     *            current session, the exchange fails with a
+     *            {@link BLApiAuthException} if the device rejects it
+     * @param priority
+     *            Lane the packet waits in while the device is busy
+     */
+    private <T> CompletableFuture<T> exchange(int timeout, CmdPayload cmdPayload, ResponseParser<T> parser,
+            Session fixed, Priority priority) {
+        return window.submit(() -> {
+            try {
+                InetSocketAddress dest = getDeviceAddress();
+                Session used = fixed != null ? fixed : session.get();
+                ByteBuffer packet = encodeCmdPacket(used.getEncoder(), cmdPayload, dest);
+                ResponseParser<T> p = fixed != null ? parser : frame -> {
+                    if (frame.isAuthError()) {
+                        onSessionRejected(used, frame.getErr());
+                        throw new BLApiAuthException(frame.getErr());
                     }
-    
-                    log.debug("Received datagram");
-    
-                    String host = recePacket.getAddress().getHostAddress();
-                    Mac mac = new Mac(reverseBytes(subbytes(receBytes, 0x3a, 0x40)));
-                    short deviceType = (short) (receBytes[0x34] | receBytes[0x35] << 8);
-    
-                    log.debug("Info: host={} mac={} deviceType=0x{}", host, mac.getMacString(), Integer.toHexString(deviceType));
-                    log.debug("Creating BLDevice instance");
-    
-                    BLDevice inst = createInstance(deviceType, host, mac);
-    
-                    if (inst != null) {
-                        log.debug("Adding to found devices list");
-    
-                        devices.add(inst);
+                    return parser.parse(frame);
+                };
+                CompletableFuture<ByteBuffer> sent = transport.exchangeAsync(packet, dest, timeout, retryPolicy);
+                CompletableFuture<T> parsed = new CompletableFuture<>();
+                parsed.whenComplete((r, e) -> {
+                    if (e != null) {
+                        // stops the re-sends and releases the packet
+                        sent.cancel(false);
+                    }
+                });
+                sent.whenComplete((response, e) -> {
+                    if (e != null) {
+                        parsed.completeExceptionally(unwrap(e));
+                    } else if (parsed.isDone()) {
+                        // nobody waits for a response that won the race with a cancel
+                        transport.getPool().release(response);
                     } else {
-                        log.warn("Cannot create instance, returned null, not adding to found devices list");
+                        try {
+                            parsed.complete(parseResponse(response, used, p));
+                        } catch (RuntimeException ex) {
+                            parsed.completeExceptionally(unwrap(ex));
+                        }
                     }
-                }
+                });
+                return parsed;
+            } catch (IOException | RuntimeException e) {
+                CompletableFuture<T> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
             }
-    
-            log.debug("Discovered {} devices", devices.size());
-            
-            return devices;
+        }, priority);
+    }
+
+    private ByteBuffer encodeCmdPacket(CmdPacketEncoder encoder, CmdPayload cmdPayload, InetSocketAddress dest) {
+        byte[] data = cmdPayload.getPayload().getData();
+        boolean prefixed = isPayloadLengthPrefixed();
+        int count = pktCount.getAndIncrement();
+        if (transport.getWireTap() != WireTap.NONE) {
+            // only a tapped packet has its payload assembled in an array
+            tapPlainPayload(dest, count, createPayload(cmdPayload));
+        }
+        int len = CmdPacketEncoder.getEncodedLength(CmdPacketEncoder.getPayloadLength(data.length, prefixed));
+        BufferPool pool = transport.getPool();
+        ByteBuffer packet = len <= pool.getBufferSize() ? pool.acquire() : ByteBuffer.allocate(len);
+        encoder.encode(packet, count, cmdPayload.getPacketType(), cmdPayload.getCommand(), data, prefixed);
+        packet.flip();
+        return packet;
+    }
+
+    private <T> T parseResponse(ByteBuffer response, Session used, ResponseParser<T> parser) {
+        try {
+            return parser.parse(new ResponseFrame(response, used.getAes()));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            transport.getPool().release(response);
         }
     }
 
     /**
-     * Misc: Reverse the byte array
+     * Decrypts the payload of a response frame in place with the key of the
+     * session its request was sent with, or the current session if unknown
      * 
-     * @param data
-     *            Original data
-     * @return Result byte array
+     * @param frame
+     *            Response frame received from this device
+     * @return A view of the decrypted payload
+     * @throws Exception
+     *             If the payload cannot be decrypted
      */
-    private static byte[] reverseBytes(byte[] data) {
-        byte[] out = new byte[data.length];
-
-        for (int i = 0; i < out.length; i++) {
-            out[i] = data[data.length - 1 - i];
+    protected ByteBuffer decryptPayload(ResponseFrame frame) throws Exception {
+        boolean tapped = !frame.isDecrypted();
+        AES aes = frame.getAes() != null ? frame.getAes() : session.get().getAes();
+        ByteBuffer payload = frame.decryptPayload(aes);
+        WireTap tap = transport.getWireTap();
+        if (tapped && tap != WireTap.NONE) {
+            try {
+                tap.onPayloadDecrypted(address, frame.getCounter(), payload.duplicate());
+            } catch (RuntimeException e) {
+                log.warn("Wire tap failed", e);
+            }
         }
+        return payload;
+    }
 
-        return out;
+    /**
+     * Creates a Broadlink device client
+     * 
+     * @param deviceType
+     *            Device type constant (<code>BLDevice.DEV_*</code>)
+     * @param host
+     *            Target Broadlink device hostname
+     * @param mac
+     *            Target Broadlink device MAC address
+     * @return A BLDevice client
+     */
+    public static BLDevice createInstance(short deviceType, String host, Mac mac) {
+        return DeviceTypeRegistry.getInstance().create(deviceType, host, mac);
     }
 
     /**
-     * Misc: Pull bytes out from end of array until a non null is detected
+     * Returns the friendly description of a device type
      * 
-     * @param data
-     *            Original data
-     * @param offset
-     *            Starting offset
-     * @return Result byte array
-     */
-    private static byte[] removeNullsFromEnd(byte[] data, int offset) {
-    	int new_length = 0;
-        for (int i = data.length - 1; i >= offset; i--) {
-            if (data[i] != 0x00) { // null
-            	new_length = i + 1;
-                break;
+     * @param deviceType
+     *            Device type constant (<code>BLDevice.DEV_*</code>)
+     * @return The description, or <code>null</code> if the device type is not
+     *         supported
+     */
+    public static String describeDeviceType(short deviceType) {
+        return DeviceTypeRegistry.getInstance().getDescription(deviceType);
+    }
+
+    /**
+     * Creates clients of the supported devices found by a discovery
+     * 
+     * @param found
+     *            Devices found
+     * @return A client for each supported device
+     */
+    private static List<BLDevice> open(List<DeviceDescriptor> found) {
+        List<BLDevice> devices = new ArrayList<>(found.size());
+        for (DeviceDescriptor descriptor : found) {
+            if (descriptor.isSupported()) {
+                devices.add(descriptor.open());
+            } else {
+                log.warn("Cannot create instance of device {}", descriptor);
             }
         }
+        return devices;
+    }
+
+    /**
+     * Discover Broadlink devices in the local network, with
+     * {@link #DEFAULT_TIMEOUT default timeout}
+     * 
+     * @return An array of <code>BLDevice</code> in the network
+     * @throws IOException
+     *             Problems when discovering
+     */
+    public static List<BLDevice> discoverDevices() throws IOException {
+        return discoverDevices(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Discover Broadlink devices in the local network
+     * 
+     * @param timeout
+     *            Socket read timeout
+     * @return An array of <code>BLDevice</code> in the network
+     * @throws IOException
+     *             Problems when discovering
+     */
+    public static List<BLDevice> discoverDevices(int timeout) throws IOException {
+        log.debug("Discovering devices");
+
+        try (Discovery discovery = Discovery.startOnAllInterfaces(timeout, device -> {})) {
+            return open(discovery.await());
+        }
+    }
 
-        byte[] out = new byte[new_length];
+    /**
+     * Discover Broadlink devices in the network, binded with a specific IP
+     * address
+     * 
+     * @param sourceIpAddr
+     *            The IP address to be binded
+     * @param sourcePort
+     *            The port to be binded
+     * @param timeout
+     *            Socket read timeout
+     * @return An array of <code>BLDevice</code> in the network
+     * @throws IOException
+     *             Problems when discovering
+     */
+    public static List<BLDevice> discoverDevices(InetAddress sourceIpAddr, int sourcePort, int timeout) throws IOException {
+        log.debug("Discovering devices");
 
-        for (int x = offset; x < new_length; x++) {
-            out[x - offset] = data[x];
+        try (Discovery discovery = Discovery.start(sourceIpAddr, sourcePort, timeout, device -> {})) {
+            return open(discovery.await());
         }
+    }
 
-        return out;
+    /**
+     * Discover Broadlink devices in the local network without blocking. Each
+     * device is handed to the listener as soon as its response arrives, as a
+     * {@link DeviceDescriptor} that creates the client on
+     * {@link DeviceDescriptor#open() open()}.
+     * 
+     * @param timeout
+     *            How long to listen for responses in ms. 0 stops at the first
+     *            device found
+     * @param listener
+     *            Receives each device found
+     * @return The running discovery, which can be closed to stop it early
+     * @throws IOException
+     *             Problems when discovering
+     */
+    public static Discovery discoverDevices(int timeout, DiscoveryListener listener) throws IOException {
+        return Discovery.startOnAllInterfaces(timeout, listener);
     }
 
     /**
@@ -692,26 +1743,18 @@ public abstract class BLDevice implements Closeable {
      * @return Payload bytes without the header and padded to modulo 16
      */
     private static byte[] getRawPayloadBytesPadded(byte[] data) {
-        byte[] encData = subbytes(data, BLDevice.DEFAULT_BYTES_SIZE, data.length);
-        byte[] newBytes = null;
-        if(encData.length > 0) {
-          int numpad = 16 - (encData.length % 16);
-
-          newBytes = new byte[encData.length+numpad];
-          for(int i = 0; i < newBytes.length; i++) {
-        	  if(i < encData.length) {
-                newBytes[i] = encData[i];
-            } else {
-                newBytes[i] = 0x00;
-            }
-          }
+        int len = data.length - BLDevice.DEFAULT_BYTES_SIZE;
+        if (len <= 0) {
+            return null;
         }
-        return newBytes;
+        // copy and zero-pad in one go
+        int numpad = 16 - (len % 16);
+        return Arrays.copyOfRange(data, BLDevice.DEFAULT_BYTES_SIZE, data.length + numpad);
     }
     
     protected byte[] decryptFromDeviceMessage(byte[] encData) throws Exception {
     	byte[] encPL = getRawPayloadBytesPadded(encData);
-        byte[] pl = aes.decrypt(encPL);
+        byte[] pl = session.get().getAes().decrypt(encPL);
         
     	return pl;
     }
@@ -728,12 +1771,7 @@ public abstract class BLDevice implements Closeable {
      */
     public static byte[] subbytes(byte[] data, int start, int end) {
         byte[] out = new byte[end - start];
-
-        int outi = 0;
-        for (int i = start; i < end; i++, outi++) {
-            out[outi] = data[i];
-        }
-
+        System.arraycopy(data, start, out, 0, out.length);
         return out;
     }
 
@@ -750,47 +1788,47 @@ public abstract class BLDevice implements Closeable {
      * @param timeout
      *            Socket timeout. 0 will disable the timeout
      * @param bufSize
-     *            Receiving datagram's buffer size
-     * @return The received datagram
+     *            Unused. The shared transport receives datagrams of any size
+     * @return The received datagram, or an empty datagram if the device did
+     *         not respond in time
      * @throws IOException
-     *             Thrown if socket timed out, cannot bind source IP and source
-     *             port, no permission, etc.
+     *             Thrown if the packet cannot be sent, no permission, etc.
      */
     public DatagramPacket sendPkt(Packet pkt, InetAddress destIpAddr, int destPort, int timeout, int bufSize) throws IOException {
-    	
-    	String boundHost = null;
-    	if(sock.getInetAddress() == null) {
-            boundHost = "0.0.0.0";
-        } else {
-            boundHost = sock.getInetAddress().getHostAddress();
+        try {
+            return DatagramTransport.await(sendPktAsync(pkt, destIpAddr, destPort, timeout));
+        } catch (SocketTimeoutException e) {
+            log.warn("sendPkt - no response from {}:{} within {} ms", destIpAddr, destPort, timeout);
+            return new DatagramPacket(new byte[0], 0, destIpAddr, destPort);
         }
-    	log.debug("sendPkt - call with given sock for {} and port {}", boundHost, sock.getPort());
+    }
 
+    /**
+     * Sends a compiled packet to a destination host and port without
+     * blocking. Re-sends and the timeout are handled by the transport's
+     * shared timer.
+     * 
+     * @param pkt
+     *            The compiled packet to be sent
+     * @param destIpAddr
+     *            Destination IP address
+     * @param destPort
+     *            Destination Port
+     * @param timeout
+     *            Response timeout. 0 will disable the timeout
+     * @return A future of the received datagram. It fails with a
+     *         <code>SocketTimeoutException</code> if no response arrived in
+     *         time.
+     */
+    public CompletableFuture<DatagramPacket> sendPktAsync(Packet pkt, InetAddress destIpAddr, int destPort, int timeout) {
         byte[] data = pkt.getData();
-        DatagramPacket sendpack = new DatagramPacket(data, data.length, destIpAddr, destPort);
-        log.debug("snedPkt - data for length: {} to: {} for port: {}", data.length, sendpack.getAddress().getHostAddress(), sendpack.getPort());
-        byte[] rece = new byte[bufSize];
-        DatagramPacket recepack = new DatagramPacket(rece, 0, rece.length);
-
-        long startTime = System.currentTimeMillis();
-        long elapsed;
-        while ((elapsed = System.currentTimeMillis() - startTime) < timeout) {
-            try {
-                sock.send(sendpack);
-                sock.setSoTimeout(1000);
-                sock.receive(recepack);
-                break;
-            } catch (SocketTimeoutException e) {
-                if (elapsed > timeout) {
-                    break;
-                }
-
-                continue;
-            }
-        }
-
-        log.debug("sendPkt - recv data bytes ({}) after initial req: {}", recepack.getData().length, DatatypeConverter.printHexBinary(recepack.getData()));
-        recepack.setData(removeNullsFromEnd(recepack.getData(), 0));
-        return recepack;
+        InetSocketAddress dest = new InetSocketAddress(destIpAddr, destPort);
+        log.debug("sendPktAsync - data for length: {} to: {}", data.length, dest);
+
+        // the transport future is returned as is, so that cancelling it stops the re-sends
+        CompletableFuture<DatagramPacket> future = transport.exchangeAsync(data, dest, timeout, retryPolicy);
+        future.thenAccept(recepack -> log.debug("sendPktAsync - recv data bytes ({}) from: {}",
+                recepack.getLength(), dest));
+        return future;
     }
 }
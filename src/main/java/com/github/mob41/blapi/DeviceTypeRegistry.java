@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.ex.BLApiRuntimeException;
+import com.github.mob41.blapi.mac.Mac;
+
+/**
+ * Maps device types to the clients that handle them. The table has a slot
+ * for every 16-bit device type, so looking up the type of a discovered
+ * device takes a single array read however many types are registered.<br>
+ * <br>
+ * The built-in device types are registered first, followed by those of every
+ * {@link BLDeviceProvider} found on the class path. Types can also be
+ * registered at runtime with {@link #register(short, String, BLDeviceCreator)
+ * register}.
+ * 
+ * @author Anthony
+ *
+ */
+public final class DeviceTypeRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceTypeRegistry.class);
+
+    private static final DeviceTypeRegistry INSTANCE = new DeviceTypeRegistry();
+
+    static {
+        registerBuiltins(INSTANCE);
+        INSTANCE.loadProviders();
+    }
+
+    private static final class Entry {
+
+        private final String desc;
+
+        private final BLDeviceCreator creator;
+
+        private Entry(String desc, BLDeviceCreator creator) {
+            this.desc = desc;
+            this.creator = creator;
+        }
+
+    }
+
+    /**
+     * One slot per device type, indexed by the unsigned type
+     */
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<>(0x10000);
+
+    private DeviceTypeRegistry() {
+    }
+
+    /**
+     * Returns the registry used to create discovered devices
+     * 
+     * @return The shared registry
+     */
+    public static DeviceTypeRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers a device type, replacing any client registered for it before
+     * 
+     * @param deviceType
+     *            Device type reported by the device
+     * @param desc
+     *            Friendly description of the device type
+     * @param creator
+     *            Creates the client of the device type
+     */
+    public void register(short deviceType, String desc, BLDeviceCreator creator) {
+        if (desc == null || creator == null) {
+            throw new NullPointerException("Description and creator are required");
+        }
+        Entry old = entries.getAndSet(deviceType & 0xffff, new Entry(desc, creator));
+        if (old != null) {
+            log.debug("Device type 0x{} \"{}\" replaced by \"{}\"", Integer.toHexString(deviceType & 0xffff), old.desc,
+                    desc);
+        }
+    }
+
+    /**
+     * Returns whether a device type is registered
+     * 
+     * @param deviceType
+     *            Device type reported by the device
+     * @return Whether a client can be created for the device type
+     */
+    public boolean isSupported(short deviceType) {
+        return entries.get(deviceType & 0xffff) != null;
+    }
+
+    /**
+     * Returns the friendly description of a device type
+     * 
+     * @param deviceType
+     *            Device type reported by the device
+     * @return The description, or <code>null</code> if the device type is not
+     *         registered
+     */
+    public String getDescription(short deviceType) {
+        Entry entry = entries.get(deviceType & 0xffff);
+        return entry == null ? null : entry.desc;
+    }
+
+    /**
+     * Creates the client of a device
+     * 
+     * @param deviceType
+     *            Device type reported by the device
+     * @param host
+     *            Target Broadlink device hostname
+     * @param mac
+     *            Target Broadlink device MAC address
+     * @return A new device client
+     * @throws BLApiRuntimeException
+     *             If the device type is not registered
+     */
+    public BLDevice create(short deviceType, String host, Mac mac) {
+        Entry entry = entries.get(deviceType & 0xffff);
+        if (entry == null) {
+            throw new BLApiRuntimeException("Cannot found deviceType: " + deviceType);
+        }
+        return entry.creator.create(deviceType, entry.desc, host, mac);
+    }
+
+    private void loadProviders() {
+        Iterator<BLDeviceProvider> it = ServiceLoader.load(BLDeviceProvider.class).iterator();
+        while (true) {
+            BLDeviceProvider provider;
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                provider = it.next();
+            } catch (ServiceConfigurationError e) {
+                // skip the broken provider, the iterator moves on to the next
+                log.warn("Cannot load device provider", e);
+                continue;
+            }
+
+            log.debug("Registering devices of {}", provider.getClass().getName());
+            try {
+                provider.registerDevices(this);
+            } catch (RuntimeException e) {
+                log.warn("Device provider {} failed", provider.getClass().getName(), e);
+            }
+        }
+    }
+
+    private static void registerBuiltins(DeviceTypeRegistry registry) {
+        registry.register((short) 0x0, "Smart Plug V1", SP1Device::new);
+        registry.register((short) 0x2711, "Smart Plug V2", SP2Device::new);
+        registry.register((short) 0x2719, "Smart Plug Honeywell", SP2Device::new);
+        registry.register((short) 0x7919, "Smart Plug Honeywell", SP2Device::new);
+        registry.register((short) 0x271a, "Smart Plug Honeywell", SP2Device::new);
+        registry.register((short) 0x791a, "Smart Plug Honeywell", SP2Device::new);
+        registry.register((short) 0x2720, "Smart Plug Mini", SP2Device::new);
+        registry.register((short) 0x753e, "Smart Plug V3", SP2Device::new);
+        registry.register((short) 0x2728, "Smart Plug Mini V2", SP2Device::new);
+        registry.register((short) 0x2733, "Smart Plug OEM", SP2Device::new);
+        registry.register((short) 0x273e, "Smart Plug OEM", SP2Device::new);
+        registry.register((short) 0x2736, "Smart Plug Mini Plus", SP2Device::new);
+        registry.register((short) 0x2712, "RM 2", RM2Device::new);
+        registry.register((short) 0x2737, "RM Mini", RM2Device::new);
+        registry.register((short) 0x27c2, "RM Mini 3", RM2Device::new);
+        registry.register((short) 0x273d, "RM Pro", RM2Device::new);
+        registry.register((short) 0x2783, "RM 2 Home Plus", RM2Device::new);
+        registry.register((short) 0x277c, "RM 2 Home Plus GDT", RM2Device::new);
+        registry.register((short) 0x272a, "RM 2 Pro Plus", RM2Device::new);
+        registry.register((short) 0x2787, "RM 2 Pro Plus 2", RM2Device::new);
+        registry.register((short) 0x278b, "RM 2 Pro Plus 2 BL", RM2Device::new);
+        registry.register((short) 0x278f, "RM Mini SHATE", RM2Device::new);
+        registry.register((short) 0x2714, "Environmental Sensor", A1Device::new);
+        registry.register((short) 0x4EB5, "Power Strip", MP1Device::new);
+        registry.register((short) 0xffad, "Floureon Thermostat", FloureonDevice::new);
+        registry.register((short) 0x4ead, "Hysen Thermostat", HysenDevice::new);
+        registry.register((short) 0x51DA, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x5209, "RM4 TV mate", RM4Device::new);
+        registry.register((short) 0x520C, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x520D, "RM4C mini", RM4Device::new);
+        registry.register((short) 0x5211, "RM4C mate", RM4Device::new);
+        registry.register((short) 0x5212, "RM4 TV mate", RM4Device::new);
+        registry.register((short) 0x5216, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x521C, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x6070, "RM4C mini", RM4Device::new);
+        registry.register((short) 0x610E, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x610F, "RM4C mini", RM4Device::new);
+        registry.register((short) 0x62BC, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x62BE, "RM4C mini", RM4Device::new);
+        registry.register((short) 0x6364, "RM4S", RM4Device::new);
+        registry.register((short) 0x648D, "RM4 mini", RM4Device::new);
+        registry.register((short) 0x6539, "RM4C mini", RM4Device::new);
+        registry.register((short) 0x653A, "RM4 mini", RM4Device::new);
+    }
+
+}
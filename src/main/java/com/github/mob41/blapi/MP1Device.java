@@ -30,15 +30,22 @@
 package com.github.mob41.blapi;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-
-import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.net.DatagramTransport;
+import com.github.mob41.blapi.net.Priority;
 import com.github.mob41.blapi.pkt.CmdPayload;
 import com.github.mob41.blapi.pkt.Payload;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 
 public class MP1Device extends BLDevice {
+    /**
+     * Key of the cached outlet mask
+     */
+    private static final String STATES = "getStates";
+
     /**
      * Generic way to create a MP1Device
      * @param deviceType Device Type
@@ -57,13 +64,31 @@ public class MP1Device extends BLDevice {
      * @throws IOException Problems when sending the packet
      */
     public void setState(int sid, boolean state) throws IOException {
+        DatagramTransport.await(setStateAsync(sid, state));
+    }
+
+    /**
+     * Set the power state without blocking. Once the device accepted it, the
+     * outlet is updated in the cached outlet mask.
+     * @param sid The SID
+     * @param state Power State
+     * @return A future completed once the device responded
+     */
+    public CompletableFuture<Void> setStateAsync(int sid, boolean state) {
         int sid_mask = 0x01 << (sid - 1);
-        setStateMask(sid_mask, state);
+        CompletableFuture<Void> f = sendCmdPktAsync(10000, setStateMaskPayload(sid_mask, state),
+                frame -> parseSetStateMask(frame, sid_mask, state));
+        f.whenComplete((r, e) -> {
+            if (e != null) {
+                removeCachedState(STATES);
+            }
+        });
+        return f;
     }
 
-    private void setStateMask(final int sid_mask, final boolean state) throws IOException {
+    private static CmdPayload setStateMaskPayload(final int sid_mask, final boolean state) {
         // """Sets the power state of the smart power strip."""
-        DatagramPacket packet = sendCmdPkt(new CmdPayload() {
+        return new CmdPayload() {
 
             @Override
             public byte getPacketType() {
@@ -99,17 +124,20 @@ public class MP1Device extends BLDevice {
                 return -1;
             }
 
-        });
-
-        byte[] data = packet.getData();
+        };
+    }
 
-        int err = data[0x22] | (data[0x23] << 8);
+    private Void parseSetStateMask(ResponseFrame frame, int sid_mask, boolean state) {
+        int err = frame.getErr();
 
         if (err == 0) {
-        	log.debug("MP1 set state mask received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+        	log.debug("MP1 set state mask received encrypted bytes: {}", frame);
+            this.<Byte>updateCachedState(STATES, mask -> (byte) (state ? mask | sid_mask : mask & ~sid_mask));
         } else {
             log.warn("MP1 set state mask received returned err: " + Integer.toHexString(err) + " / " + err);        	
+            removeCachedState(STATES);
         }
+        return null;
     }
     
     public boolean getStateByIndex(int index) throws Exception{
@@ -118,7 +146,23 @@ public class MP1Device extends BLDevice {
 
     public boolean[] getStates() throws Exception {
         // """Returns the power state of the smart power strip."""
-        byte state = getStatesRaw();
+        return getResult(getStatesAsync());
+    }
+
+    /**
+     * Requests the power state of every outlet without blocking. An outlet
+     * mask cached within {@link #getStateCacheTtl()} is used without a round
+     * trip.
+     * @return A future of the outlet states
+     */
+    public CompletableFuture<boolean[]> getStatesAsync() {
+        // an error response decodes to null, which is reported as all off but not cached
+        return this.<Byte>cachedRead(STATES,
+                () -> sendCmdPktAsync(10000, STATES_RAW_PAYLOAD, this::parseStatesRaw, Priority.BACKGROUND))
+                .thenApply(mask -> toStates(mask != null ? mask : 0));
+    }
+
+    private static boolean[] toStates(byte state) {
         boolean[] data = new boolean[4];
         data[0] = ((state & 0x01) != 0) ? true : false;
         data[1] = ((state & 0x02) != 0) ? true : false;
@@ -127,64 +171,62 @@ public class MP1Device extends BLDevice {
         return data;
     }
     
-    private byte getStatesRaw() throws Exception {
-        // """Returns the power state of the smart power strip in raw format."""
-        DatagramPacket packet = sendCmdPkt(new CmdPayload() {
-
-            @Override
-            public byte getPacketType() {
-                return 0x6a;
-            }
+    // """Returns the power state of the smart power strip in raw format."""
+    private static final CmdPayload STATES_RAW_PAYLOAD = new CmdPayload() {
 
-            @Override
-            public Payload getPayload() {
-                return new Payload() {
-
-                    @Override
-                    public byte[] getData() {
-                        byte[] b = new byte[16];
-                        b[0x00] = (byte) (0x0a);
-                        b[0x02] = (byte) (0xa5);
-                        b[0x03] = (byte) (0xa5);
-                        b[0x04] = (byte) (0x5a);
-                        b[0x05] = (byte) (0x5a);
-                        b[0x06] = (byte) (0xae);
-                        b[0x07] = (byte) (0xc0);
-                        b[0x08] = (byte) (0x01);
-                        return b;
-                    }
-
-                };
-            }
+        @Override
+        public byte getPacketType() {
+            return 0x6a;
+        }
 
-            @Override
-            public int getCommand() {
-                return -1;
-            }
+        @Override
+        public Payload getPayload() {
+            return new Payload() {
+
+                @Override
+                public byte[] getData() {
+                    byte[] b = new byte[16];
+                    b[0x00] = (byte) (0x0a);
+                    b[0x02] = (byte) (0xa5);
+                    b[0x03] = (byte) (0xa5);
+                    b[0x04] = (byte) (0x5a);
+                    b[0x05] = (byte) (0x5a);
+                    b[0x06] = (byte) (0xae);
+                    b[0x07] = (byte) (0xc0);
+                    b[0x08] = (byte) (0x01);
+                    return b;
+                }
+
+            };
+        }
 
-        });
+        @Override
+        public int getCommand() {
+            return -1;
+        }
 
-        byte[] data = packet.getData();
+    };
 
-        log.debug("MP1 get states raw received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+    private Byte parseStatesRaw(ResponseFrame frame) throws Exception {
+        log.debug("MP1 get states raw received encrypted bytes: {}", frame);
 
-        int err = data[0x22] | (data[0x23] << 8);
+        int err = frame.getErr();
 
         if (err == 0) {
-            byte[] pl = decryptFromDeviceMessage(data);
-            log.debug("MP1 get states raw received bytes (decrypted): " + DatatypeConverter.printHexBinary(pl));
+            ByteBuffer pl = decryptPayload(frame);
+            log.debug("MP1 get states raw received bytes (decrypted): {}", frame);
             byte state = 0;
-            if (pl[0x3c] >= 48 && pl[0x3c] <= 57) {
+            if (pl.get(0x3c) >= 48 && pl.get(0x3c) <= 57) {
                 String decodeValue1;
-                decodeValue1 = String.valueOf(pl[0x46]);
+                decodeValue1 = String.valueOf(pl.get(0x46));
                 state = Short.decode(decodeValue1).byteValue();
             } else {
-                state = pl[0x46];
+                state = pl.get(0x46);
             }
             return state;
         } else {
             log.warn("MP1 get states raw received an error: " + Integer.toHexString(err) + " / " + err);
         }
-        return 0;
+        return null;
     }
 }
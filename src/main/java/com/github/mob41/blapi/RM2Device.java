@@ -29,13 +29,13 @@
 package com.github.mob41.blapi;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
-import javax.xml.bind.DatatypeConverter;
-
-import com.github.mob41.blapi.ex.BLApiErrorResponseException;
 import com.github.mob41.blapi.mac.Mac;
-import com.github.mob41.blapi.pkt.CmdPayload;
+import com.github.mob41.blapi.net.DatagramTransport;
+import com.github.mob41.blapi.net.Priority;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 import com.github.mob41.blapi.pkt.cmd.rm2.CheckDataCmdPayload;
 import com.github.mob41.blapi.pkt.cmd.rm2.EnterLearnCmdPayload;
 import com.github.mob41.blapi.pkt.cmd.rm2.RMTempCmdPayload;
@@ -70,37 +70,50 @@ public class RM2Device extends BLDevice {
      *             Problems on sending packet
      */
     public byte[] checkData() throws Exception {
-        CheckDataCmdPayload cmdPayload = new CheckDataCmdPayload();
-        DatagramPacket packet = sendCmdPkt(10000, cmdPayload);
-        byte[] data = packet.getData();
-
-        int err = data[0x22] | (data[0x23] << 8);
-
-        log.debug("RM2 check data received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+        return sendCmdPkt(10000, new CheckDataCmdPayload(), this::parseCheckData);
+    }
 
+    /**
+     * Requests the RM2 to return the learned data without blocking
+     * 
+     * @return A future of the learned data
+     */
+    public CompletableFuture<byte[]> checkDataAsync() {
+        return sendCmdPktAsync(10000, new CheckDataCmdPayload(), this::parseCheckData);
+    }
 
-        if (err == 0) {
-            byte[] encData = decryptFromDeviceMessage(data);
+    private byte[] parseCheckData(ResponseFrame frame) throws Exception {
+        log.debug("RM2 check data received encrypted bytes: {}", frame);
 
-            return subbytes(encData, 0x06, encData.length);
-        }
+        frame.checkErr("check data");
 
-        throw new BLApiErrorResponseException("check data", err);
+        ByteBuffer pl = decryptPayload(frame);
+        pl.position(0x06);
+        byte[] learned = new byte[pl.remaining()];
+        pl.get(learned);
+        return learned;
     }
 
     public void sendData(byte[] input) throws IOException {
-        CmdPayload payload = new SendDataCmdPayload(input);
-        DatagramPacket packet = sendCmdPkt(10000, payload);
-        
-        byte[] data = packet.getData();
+        DatagramTransport.await(sendCmdPktAsync(10000, new SendDataCmdPayload(input), this::parseSendData));
+    }
 
-        int err = data[0x22] | (data[0x23] << 8);
+    /**
+     * Sends the data to be transmitted by the RM2 without blocking
+     * 
+     * @param input
+     *            The learned data to transmit
+     * @return A future completed once the device acknowledged the data
+     */
+    public CompletableFuture<Void> sendDataAsync(byte[] input) {
+        return sendCmdPktAsync(10000, new SendDataCmdPayload(input), this::parseSendData);
+    }
 
-        log.debug("RM2 check data received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+    private Void parseSendData(ResponseFrame frame) {
+        log.debug("RM2 check data received encrypted bytes: {}", frame);
 
-        if (err != 0) {
-            throw new BLApiErrorResponseException("send data", err);
-        }
+        frame.checkErr("send data");
+        return null;
     }
     
     /**
@@ -113,18 +126,23 @@ public class RM2Device extends BLDevice {
      *             Problems on sending packet
      */
     public boolean enterLearning() throws IOException {
-        EnterLearnCmdPayload cmdPayload = new EnterLearnCmdPayload();
-		DatagramPacket packet = sendCmdPkt(10000, cmdPayload);
-
-        byte[] data = packet.getData();
-        log.debug("RM2 enter learning received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
-        int err = data[0x22] | (data[0x23] << 8);
-
-        if (err == 0) {
-        	return true;
-        }
-        
-        throw new BLApiErrorResponseException("enter learning", err);
+        return DatagramTransport.await(sendCmdPktAsync(10000, new EnterLearnCmdPayload(), this::parseEnterLearning));
+    }
+
+    /**
+     * Requests the RM2 to enter learning mode without blocking
+     * 
+     * @return A future of whether the command is successfully sent
+     */
+    public CompletableFuture<Boolean> enterLearningAsync() {
+        return sendCmdPktAsync(10000, new EnterLearnCmdPayload(), this::parseEnterLearning);
+    }
+
+    private boolean parseEnterLearning(ResponseFrame frame) {
+        log.debug("RM2 enter learning received encrypted bytes: {}", frame);
+
+        frame.checkErr("enter learning");
+        return true;
     }
 
     /**
@@ -137,19 +155,27 @@ public class RM2Device extends BLDevice {
      *             Problems on sending packet
      */
     public double getTemp() throws Exception {
-        DatagramPacket packet = sendCmdPkt(new RMTempCmdPayload());
-        byte[] data = packet.getData();
+        return sendCmdPkt(10000, new RMTempCmdPayload(), this::parseTemp, Priority.BACKGROUND);
+    }
+
+    /**
+     * Requests the RM2 to return the room temperature without blocking
+     * 
+     * @return A future of the room temperature
+     */
+    public CompletableFuture<Double> getTempAsync() {
+        return sendCmdPktAsync(10000, new RMTempCmdPayload(), this::parseTemp, Priority.BACKGROUND);
+    }
+
+    private double parseTemp(ResponseFrame frame) throws Exception {
+        log.debug("RM2 get temp received encrypted bytes: {}", frame);
 
-        log.debug("RM2 get temp received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
-        int err = data[0x22] | (data[0x23] << 8);
+        frame.checkErr("get temp");
 
-        if (err == 0) {
-            byte[] pl = decryptFromDeviceMessage(data);
-            log.debug("RM2 get temp received bytes (decrypted): " + DatatypeConverter.printHexBinary(pl));
+        ByteBuffer pl = decryptPayload(frame);
+        log.debug("RM2 get temp received bytes (decrypted): {}", frame);
 
-            return (pl[0x4] * 10 + pl[0x5]) / 10.0;
-        }
-        throw new BLApiErrorResponseException("get temp", err);
+        return (pl.get(0x4) * 10 + pl.get(0x5)) / 10.0;
     }
 
 }
@@ -29,11 +29,10 @@
 
 package com.github.mob41.blapi;
 
-import java.net.DatagramPacket;
-
-import javax.xml.bind.DatatypeConverter;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 import com.github.mob41.blapi.pkt.cmd.rm2.SendDataCmdPayload;
 
 public class SP1Device extends BLDevice {
@@ -43,16 +42,28 @@ public class SP1Device extends BLDevice {
     }
 
     public void setPower(final boolean state) throws Exception {
-        DatagramPacket packet = sendCmdPkt(new SendDataCmdPayload(new byte[] { (byte) (state ? 1 : 0) }));
+        sendCmdPkt(10000, new SendDataCmdPayload(new byte[] { (byte) (state ? 1 : 0) }), this::parseSetPower);
+    }
 
-        byte[] data = packet.getData();
+    /**
+     * Sets the power state of the plug without blocking
+     * 
+     * @param state
+     *            Power state
+     * @return A future completed once the device responded
+     */
+    public CompletableFuture<Void> setPowerAsync(final boolean state) {
+        return sendCmdPktAsync(10000, new SendDataCmdPayload(new byte[] { (byte) (state ? 1 : 0) }), this::parseSetPower);
+    }
 
-        log.debug("SP1 set power received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+    private Void parseSetPower(ResponseFrame frame) {
+        log.debug("SP1 set power received encrypted bytes: {}", frame);
 
-        int err = data[0x22] | (data[0x23] << 8);
+        int err = frame.getErr();
 
         if (err != 0) {
             log.warn("SP1 set power received returned err: " + Integer.toHexString(err) + " / " + err);        	
         }
+        return null;
     }
 }
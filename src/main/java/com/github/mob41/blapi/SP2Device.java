@@ -29,50 +29,94 @@
 
 package com.github.mob41.blapi;
 
-import java.net.DatagramPacket;
-
-import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.net.Priority;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 import com.github.mob41.blapi.pkt.cmd.rm2.RMTempCmdPayload;
 import com.github.mob41.blapi.pkt.cmd.rm2.SendDataCmdPayload;
 
 public class SP2Device extends BLDevice {
 
+    /**
+     * Key of the cached power state
+     */
+    private static final String STATE = "getState";
+
     public SP2Device(short deviceType, String deviceDesc, String host, Mac mac) {
         super(deviceType, deviceDesc, host, mac);
     }
 
     public void setState(final boolean state) throws Exception {
-        DatagramPacket packet = sendCmdPkt(new SendDataCmdPayload(new byte[] { (byte) (state ? 1 : 0) }));
+        getResult(setStateAsync(state));
+    }
 
-        byte[] data = packet.getData();
+    /**
+     * Sets the power state of the plug without blocking. Once the device
+     * accepted it, the state is cached for {@link #getStateAsync()}.
+     * 
+     * @param state
+     *            Power state
+     * @return A future completed once the device responded
+     */
+    public CompletableFuture<Void> setStateAsync(final boolean state) {
+        CompletableFuture<Void> f = sendCmdPktAsync(10000,
+                new SendDataCmdPayload(new byte[] { (byte) (state ? 1 : 0) }), frame -> parseSetState(frame, state));
+        f.whenComplete((r, e) -> {
+            if (e != null) {
+                removeCachedState(STATE);
+            }
+        });
+        return f;
+    }
 
-        log.debug("SP2 set state received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+    private Void parseSetState(ResponseFrame frame, boolean state) {
+        log.debug("SP2 set state received encrypted bytes: {}", frame);
 
-        int err = data[0x22] | (data[0x23] << 8);
+        int err = frame.getErr();
 
         if (err != 0) {
             log.warn("SP2 set state received returned err: " + Integer.toHexString(err) + " / " + err);        	
+            removeCachedState(STATE);
+        } else {
+            putCachedState(STATE, state);
         }
+        return null;
     }
 
     public boolean getState() throws Exception {
-        DatagramPacket packet = sendCmdPkt(new RMTempCmdPayload());
-        byte[] data = packet.getData();
+        return getResult(getStateAsync());
+    }
+
+    /**
+     * Requests the power state of the plug without blocking. Concurrent
+     * requests share one exchange with the device, and a state cached within
+     * {@link #getStateCacheTtl()} is returned without one.
+     * 
+     * @return A future of the power state
+     */
+    public CompletableFuture<Boolean> getStateAsync() {
+        // an error response decodes to null, which is reported as off but not cached
+        return this.<Boolean>cachedRead(STATE,
+                () -> sendCmdPktAsync(10000, new RMTempCmdPayload(), this::parseState, Priority.BACKGROUND))
+                .thenApply(state -> state != null && state);
+    }
 
-        log.debug("SP2 get state received encrypted bytes: " + DatatypeConverter.printHexBinary(data));
+    private Boolean parseState(ResponseFrame frame) throws Exception {
+        log.debug("SP2 get state received encrypted bytes: {}", frame);
 
-        int err = data[0x22] | (data[0x23] << 8);
+        int err = frame.getErr();
 
         if (err == 0) {
-            byte[] pl = decryptFromDeviceMessage(data);
-            log.debug("SP2 get state  received bytes (decrypted): " + DatatypeConverter.printHexBinary(pl));
-            return pl[0x4] == 1 ? true : false;
+            ByteBuffer pl = decryptPayload(frame);
+            log.debug("SP2 get state  received bytes (decrypted): {}", frame);
+            return pl.get(0x4) == 1 ? true : false;
         } else {
             log.warn("SP2 get state received an error: " + Integer.toHexString(err) + " / " + err);
         }
 
-        return false;
+        return null;
     }
 }
@@ -29,15 +29,24 @@
 
 package com.github.mob41.blapi.dev.hysen;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
 import javax.xml.bind.DatatypeConverter;
 
 import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.ex.BLApiRuntimeException;
 import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.pkt.ResponseFrame;
+import com.github.mob41.blapi.pkt.cmd.hysen.BaseHysenCommand;
 import com.github.mob41.blapi.pkt.cmd.hysen.GetBasicInfoCommand;
 import com.github.mob41.blapi.pkt.cmd.hysen.GetStatusCommand;
 import com.github.mob41.blapi.pkt.cmd.hysen.SetModeCommand;
 import com.github.mob41.blapi.pkt.cmd.hysen.SetPeriodsCommand;
 import com.github.mob41.blapi.pkt.cmd.hysen.SetPoweCommand;
+import com.github.mob41.blapi.pkt.cmd.hysen.SetRegistersCommand;
 import com.github.mob41.blapi.pkt.cmd.hysen.SetTempCommand;
 
 /**
@@ -50,6 +59,19 @@ import com.github.mob41.blapi.pkt.cmd.hysen.SetTempCommand;
  */
 public class BaseHysenDevice extends BLDevice {
 
+    /**
+     * Key of the cached basic status
+     */
+    private static final String BASIC_STATUS = "getBasicStatus";
+
+    /**
+     * Default age, in milliseconds, of a status snapshot that setters reuse
+     * instead of reading the status again
+     */
+    public static final long DEFAULT_STATUS_MAX_AGE = 2000;
+
+    private volatile long statusMaxAge = DEFAULT_STATUS_MAX_AGE;
+
     /**
      * Generic way to create a BaseHysenDevice
      * 
@@ -66,11 +88,43 @@ public class BaseHysenDevice extends BLDevice {
         super(deviceType, deviceDesc, host, mac);
     }
 
+    /**
+     * Returns how old a status snapshot may be for setters that change part
+     * of a register to reuse it
+     * 
+     * @return The snapshot age bound in milliseconds
+     */
+    public long getStatusMaxAge() {
+        return statusMaxAge;
+    }
+
+    /**
+     * Sets how old a status snapshot may be for setters that change part of
+     * a register, e.g. {@link #setLock(boolean)}, to reuse it instead of
+     * reading the status again. The snapshot is the last status read or
+     * written through this instance. 0 always reads the status again.
+     * Defaults to {@link #DEFAULT_STATUS_MAX_AGE}.
+     * 
+     * @param statusMaxAge
+     *            The snapshot age bound in milliseconds
+     */
+    public void setStatusMaxAge(long statusMaxAge) {
+        if (statusMaxAge < 0) {
+            throw new IllegalArgumentException("Status max age must not be negative: " + statusMaxAge);
+        }
+        this.statusMaxAge = statusMaxAge;
+    }
+
     @Override
     public byte[] decryptFromDeviceMessage(byte[] encData) throws Exception {
         return super.decryptFromDeviceMessage(encData);
     }
 
+    @Override
+    public ByteBuffer decryptPayload(ResponseFrame frame) throws Exception {
+        return super.decryptPayload(frame);
+    }
+
     public double getThermostatTemp() throws Exception {
         BaseStatusInfo info = getBasicStatus();
         return info.getThermostatTemp();
@@ -87,18 +141,51 @@ public class BaseHysenDevice extends BLDevice {
     }
 
     public BaseStatusInfo getBasicStatus() throws Exception {
-        byte[] pl = new GetBasicInfoCommand().execute(this);
+        return getResult(getBasicStatusAsync());
+    }
+
+    /**
+     * Requests the basic status without blocking. Concurrent requests share
+     * one exchange with the device, and a status cached within
+     * {@link #getStateCacheTtl()} is returned without one.
+     * 
+     * @return A future of the basic status, or of <code>null</code> if the
+     *         device returned an error
+     */
+    public CompletableFuture<BaseStatusInfo> getBasicStatusAsync() {
+        return cachedRead(BASIC_STATUS,
+                () -> new GetBasicInfoCommand().executeAsync(this).thenApply(BaseHysenDevice::toBasicStatus));
+    }
+
+    private static BaseStatusInfo toBasicStatus(byte[] pl) {
         if (pl != null) {
-            log.debug("getBasicStatus - received bytes: {}", DatatypeConverter.printHexBinary(pl));
+            if (log.isDebugEnabled()) {
+                log.debug("getBasicStatus - received bytes: {}", DatatypeConverter.printHexBinary(pl));
+            }
             return new BaseStatusInfo(pl);
         }
         return null;
     }
 
     public AdvancedStatusInfo getAdvancedStatus() throws Exception {
-        byte[] pl = new GetStatusCommand().execute(this);
+        return toAdvancedStatus(new GetStatusCommand().execute(this));
+    }
+
+    /**
+     * Requests the advanced status without blocking
+     * 
+     * @return A future of the advanced status, or of <code>null</code> if the
+     *         device returned an error
+     */
+    public CompletableFuture<AdvancedStatusInfo> getAdvancedStatusAsync() {
+        return new GetStatusCommand().executeAsync(this).thenApply(BaseHysenDevice::toAdvancedStatus);
+    }
+
+    private static AdvancedStatusInfo toAdvancedStatus(byte[] pl) {
         if (pl != null) {
-            log.debug("getAdvancedStatus - received bytes: {}", DatatypeConverter.printHexBinary(pl));
+            if (log.isDebugEnabled()) {
+                log.debug("getAdvancedStatus - received bytes: {}", DatatypeConverter.printHexBinary(pl));
+            }
             return new AdvancedStatusInfo(pl);
         }
         return null;
@@ -120,7 +207,8 @@ public class BaseHysenDevice extends BLDevice {
      * @throws Exception If I/O goes wrong
      */
     public void setMode(boolean autoMode, LoopMode loopMode, SensorControl sensorControl) throws Exception {
-        new SetModeCommand(tob(autoMode), loopMode.getValue(), sensorControl.getValue()).execute(this);
+        write(new SetModeCommand(tob(autoMode), loopMode.getValue(), sensorControl.getValue()),
+                status -> status.withMode(autoMode, loopMode, sensorControl));
     }
 
     /**
@@ -138,48 +226,155 @@ public class BaseHysenDevice extends BLDevice {
      * @throws Exception If I/O goes wrong
      */
     public void setMode(boolean autoMode, LoopMode loopMode) throws Exception {
-        BaseStatusInfo status = this.getBasicStatus();
-        new SetModeCommand(tob(autoMode), loopMode.getValue(), status.getSensorControl().getValue()).execute(this);
+        apply(new ThermostatChange().withAutoMode(autoMode).withLoopMode(loopMode));
     }
 
     public void setPower(boolean powerOn, boolean remoteLock) throws Exception {
-        new SetPoweCommand(tob(powerOn), tob(remoteLock)).execute(this);
+        write(new SetPoweCommand(tob(powerOn), tob(remoteLock)), status -> status.withPower(powerOn, remoteLock));
     }
 
     public void setPower(boolean powerOn) throws Exception {
-        BaseStatusInfo status = this.getBasicStatus();
-        new SetPoweCommand(tob(powerOn), tob(status.getRemoteLock())).execute(this);
+        apply(new ThermostatChange().withPower(powerOn));
     }
 
     public void setLock(boolean remoteLock) throws Exception {
-        BaseStatusInfo status = this.getBasicStatus();
-        new SetPoweCommand(tob(status.getPower()), tob(remoteLock)).execute(this);
+        apply(new ThermostatChange().withRemoteLock(remoteLock));
     }
 
     public void setThermostatTemp(double temp) throws Exception {
-        new SetTempCommand(temp).execute(this);
+        // the device may also switch to manual temperature control
+        write(new SetTempCommand(temp), null);
     }
 
     public void switchToAuto() throws Exception {
-        BaseStatusInfo status = this.getBasicStatus();
-        this.setMode(true, status.getLoopMode(), status.getSensorControl());
+        apply(new ThermostatChange().withAutoMode(true));
     }
 
     public void switchToManual() throws Exception {
-        BaseStatusInfo status = this.getBasicStatus();
-        this.setMode(false, status.getLoopMode(), status.getSensorControl());
+        apply(new ThermostatChange().withAutoMode(false));
     }
 
+    /**
+     * Applies several field changes with as few writes as possible. Power
+     * and remote lock share register 0, the thermostat temperature is
+     * register 1, and auto mode, loop mode and sensor control share register
+     * 2. Consecutive changed registers are written in one command; power and
+     * mode changes without a temperature change take two, so that the
+     * temperature is not rewritten.<br>
+     * <br>
+     * Fields of a partly changed register are taken from a status snapshot
+     * no older than {@link #getStatusMaxAge()}, or from a single status read.
+     * 
+     * @param change
+     *            The fields to change
+     * @throws Exception
+     *             If I/O goes wrong
+     */
+    public void apply(ThermostatChange change) throws Exception {
+        if (change.isEmpty()) {
+            return;
+        }
+        BaseStatusInfo status = change.needsStatus() ? recentStatus() : null;
+
+        boolean power = false;
+        boolean remoteLock = false;
+        if (change.changesPower()) {
+            power = change.getPower() != null ? change.getPower() : status.getPower();
+            remoteLock = change.getRemoteLock() != null ? change.getRemoteLock() : status.getRemoteLock();
+        }
+        boolean autoMode = false;
+        LoopMode loopMode = null;
+        SensorControl sensor = null;
+        if (change.changesMode()) {
+            autoMode = change.getAutoMode() != null ? change.getAutoMode() : status.getAutoMode();
+            loopMode = change.getLoopMode() != null ? change.getLoopMode() : status.getLoopMode();
+            sensor = change.getSensorControl() != null ? change.getSensorControl() : status.getSensorControl();
+        }
+
+        Double temp = change.getThermostatTemp();
+        if (temp == null) {
+            if (change.changesPower()) {
+                setPower(power, remoteLock);
+            }
+            if (change.changesMode()) {
+                setMode(autoMode, loopMode, sensor);
+            }
+            return;
+        }
+        if (!change.changesPower() && !change.changesMode()) {
+            setThermostatTemp(temp);
+            return;
+        }
+
+        // registers 0 (power), 1 (temperature) and 2 (mode) are consecutive
+        byte[] values = new byte[6];
+        int first = change.changesPower() ? 0 : 1;
+        int last = change.changesMode() ? 2 : 1;
+        values[0] = tob(remoteLock);
+        values[1] = tob(power);
+        values[2] = 0x00;
+        values[3] = BaseHysenCommand.getTempByte(temp);
+        if (change.changesMode()) {
+            values[4] = (byte) (((loopMode.getValue() + 1) << 4) + tob(autoMode));
+            values[5] = sensor.getValue();
+        }
+        // the device may also switch to manual temperature control
+        write(new SetRegistersCommand(first, Arrays.copyOfRange(values, first * 2, last * 2 + 2)), null);
+    }
+
+    /**
+     * Returns a status snapshot no older than {@link #getStatusMaxAge()}, or
+     * reads the status
+     */
+    private BaseStatusInfo recentStatus() throws Exception {
+        BaseStatusInfo status = getCachedState(BASIC_STATUS, statusMaxAge);
+        if (status == null) {
+            status = getBasicStatus();
+            if (status == null) {
+                throw new BLApiRuntimeException("Cannot read the thermostat status to apply a change");
+            }
+        }
+        return status;
+    }
+
+
     public void setAdvancedOptions(LoopMode loopMode, SensorControl sensor, short osv, short dif, short svh, short svl,
             double adj, AntiFreezing antiFreeze, PowerOnMemory poweron) throws Exception {
-        new SetModeCommand(loopMode.getValue(), sensor.getValue(), tob(osv), tob(dif), tob(svh), tob(svl), adj,
-                antiFreeze.getValue(), poweron.getValue()).execute(this);
+        write(new SetModeCommand(loopMode.getValue(), sensor.getValue(), tob(osv), tob(dif), tob(svh), tob(svl), adj,
+                antiFreeze.getValue(), poweron.getValue()), null);
     }
 
     public void setPeriods(Period[] schedule) throws Exception {
         new SetPeriodsCommand(schedule).execute(this);
     }
 
+    /**
+     * Sends a write command and keeps the cached basic status in step with
+     * it
+     * 
+     * @param command
+     *            The write command
+     * @param update
+     *            Applies the write to a cached status, or <code>null</code>
+     *            to forget the cached status
+     * @throws Exception
+     *             If I/O goes wrong
+     */
+    private void write(BaseHysenCommand command, UnaryOperator<BaseStatusInfo> update) throws Exception {
+        byte[] reply;
+        try {
+            reply = command.execute(this);
+        } catch (Exception e) {
+            removeCachedState(BASIC_STATUS);
+            throw e;
+        }
+        if (reply != null && update != null) {
+            updateCachedState(BASIC_STATUS, update);
+        } else {
+            removeCachedState(BASIC_STATUS);
+        }
+    }
+
     private static byte tob(boolean v) {
         return (byte) (v ? 1 : 0);
     }
@@ -88,6 +88,56 @@ public class BaseStatusInfo {
         this.externalTemp = (payload[18] & 255) / 2.0;
     }
 
+    private BaseStatusInfo(BaseStatusInfo s, boolean remoteLock, boolean power, boolean autoMode, LoopMode loopMode,
+            SensorControl sensorControl) {
+        this.remoteLock = remoteLock;
+        this.power = power;
+        this.active = s.active;
+        this.manualTemp = s.manualTemp;
+        this.roomTemp = s.roomTemp;
+        this.thermostatTemp = s.thermostatTemp;
+        this.autoMode = autoMode;
+        this.loopMode = loopMode;
+        this.sensorControl = sensorControl;
+        this.osv = s.osv;
+        this.dif = s.dif;
+        this.svh = s.svh;
+        this.svl = s.svl;
+        this.roomTempAdjustment = s.roomTempAdjustment;
+        this.antiFreezing = s.antiFreezing;
+        this.powerOnMemory = s.powerOnMemory;
+        this.fac = s.fac;
+        this.externalTemp = s.externalTemp;
+    }
+
+    /**
+     * Returns this status as changed by a successful power command
+     * 
+     * @param power
+     *            The new power state
+     * @param remoteLock
+     *            The new remote lock state
+     * @return A copy of this status with the power fields changed
+     */
+    BaseStatusInfo withPower(boolean power, boolean remoteLock) {
+        return new BaseStatusInfo(this, remoteLock, power, autoMode, loopMode, sensorControl);
+    }
+
+    /**
+     * Returns this status as changed by a successful mode command
+     * 
+     * @param autoMode
+     *            The new auto mode state
+     * @param loopMode
+     *            The new loop mode
+     * @param sensorControl
+     *            The new sensor control
+     * @return A copy of this status with the mode fields changed
+     */
+    BaseStatusInfo withMode(boolean autoMode, LoopMode loopMode, SensorControl sensorControl) {
+        return new BaseStatusInfo(this, remoteLock, power, autoMode, loopMode, sensorControl);
+    }
+
     public boolean getRemoteLock() {
         return remoteLock;
     }
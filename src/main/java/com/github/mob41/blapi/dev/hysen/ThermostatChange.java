@@ -0,0 +1,171 @@
+package com.github.mob41.blapi.dev.hysen;
+
+/**
+ * A set of thermostat fields to change at once with
+ * {@link BaseHysenDevice#apply(ThermostatChange)}. Fields that are not set
+ * keep their current value on the device. A change is immutable: start from
+ * <code>new ThermostatChange()</code> and add fields with the
+ * <code>with</code> methods, e.g.
+ * 
+ * <pre>
+ * device.apply(new ThermostatChange().withPower(true).withThermostatTemp(21.5));
+ * </pre>
+ * 
+ * @author Anthony
+ */
+public final class ThermostatChange {
+
+    private final Boolean power;
+
+    private final Boolean remoteLock;
+
+    private final Double thermostatTemp;
+
+    private final Boolean autoMode;
+
+    private final LoopMode loopMode;
+
+    private final SensorControl sensorControl;
+
+    /**
+     * Creates a change that changes nothing
+     */
+    public ThermostatChange() {
+        this(null, null, null, null, null, null);
+    }
+
+    private ThermostatChange(Boolean power, Boolean remoteLock, Double thermostatTemp, Boolean autoMode,
+            LoopMode loopMode, SensorControl sensorControl) {
+        this.power = power;
+        this.remoteLock = remoteLock;
+        this.thermostatTemp = thermostatTemp;
+        this.autoMode = autoMode;
+        this.loopMode = loopMode;
+        this.sensorControl = sensorControl;
+    }
+
+    public ThermostatChange withPower(boolean power) {
+        return new ThermostatChange(power, remoteLock, thermostatTemp, autoMode, loopMode, sensorControl);
+    }
+
+    public ThermostatChange withRemoteLock(boolean remoteLock) {
+        return new ThermostatChange(power, remoteLock, thermostatTemp, autoMode, loopMode, sensorControl);
+    }
+
+    public ThermostatChange withThermostatTemp(double thermostatTemp) {
+        return new ThermostatChange(power, remoteLock, thermostatTemp, autoMode, loopMode, sensorControl);
+    }
+
+    /**
+     * Switches between auto (scheduled/timed) and manual mode
+     * 
+     * @param autoMode
+     *            auto (scheduled/timed) mode
+     * @return A copy of this change with the auto mode set
+     */
+    public ThermostatChange withAutoMode(boolean autoMode) {
+        return new ThermostatChange(power, remoteLock, thermostatTemp, autoMode, loopMode, sensorControl);
+    }
+
+    public ThermostatChange withLoopMode(LoopMode loopMode) {
+        if (loopMode == null) {
+            throw new NullPointerException("loopMode");
+        }
+        return new ThermostatChange(power, remoteLock, thermostatTemp, autoMode, loopMode, sensorControl);
+    }
+
+    public ThermostatChange withSensorControl(SensorControl sensorControl) {
+        if (sensorControl == null) {
+            throw new NullPointerException("sensorControl");
+        }
+        return new ThermostatChange(power, remoteLock, thermostatTemp, autoMode, loopMode, sensorControl);
+    }
+
+    /**
+     * @return The new power state, or <code>null</code> to keep it
+     */
+    public Boolean getPower() {
+        return power;
+    }
+
+    /**
+     * @return The new remote lock state, or <code>null</code> to keep it
+     */
+    public Boolean getRemoteLock() {
+        return remoteLock;
+    }
+
+    /**
+     * @return The new thermostat temperature, or <code>null</code> to keep it
+     */
+    public Double getThermostatTemp() {
+        return thermostatTemp;
+    }
+
+    /**
+     * @return The new auto mode state, or <code>null</code> to keep it
+     */
+    public Boolean getAutoMode() {
+        return autoMode;
+    }
+
+    /**
+     * @return The new loop mode, or <code>null</code> to keep it
+     */
+    public LoopMode getLoopMode() {
+        return loopMode;
+    }
+
+    /**
+     * @return The new sensor control, or <code>null</code> to keep it
+     */
+    public SensorControl getSensorControl() {
+        return sensorControl;
+    }
+
+    /**
+     * Returns whether the power register (power and remote lock) is changed
+     * 
+     * @return Whether power or remote lock is set
+     */
+    boolean changesPower() {
+        return power != null || remoteLock != null;
+    }
+
+    /**
+     * Returns whether the mode register (auto mode, loop mode and sensor
+     * control) is changed
+     * 
+     * @return Whether any mode field is set
+     */
+    boolean changesMode() {
+        return autoMode != null || loopMode != null || sensorControl != null;
+    }
+
+    /**
+     * Returns whether a register is only partly changed, so that its other
+     * fields must be read from the device first
+     * 
+     * @return Whether the current status is needed to apply this change
+     */
+    boolean needsStatus() {
+        return (changesPower() && (power == null || remoteLock == null))
+                || (changesMode() && (autoMode == null || loopMode == null || sensorControl == null));
+    }
+
+    /**
+     * Returns whether this change changes nothing
+     * 
+     * @return Whether no field is set
+     */
+    public boolean isEmpty() {
+        return !changesPower() && thermostatTemp == null && !changesMode();
+    }
+
+    @Override
+    public String toString() {
+        return "ThermostatChange [power=" + power + ", remoteLock=" + remoteLock + ", thermostatTemp="
+                + thermostatTemp + ", autoMode=" + autoMode + ", loopMode=" + loopMode + ", sensorControl="
+                + sensorControl + "]";
+    }
+}
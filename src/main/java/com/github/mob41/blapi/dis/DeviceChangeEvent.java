@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.dis;
+
+import com.github.mob41.blapi.mac.Mac;
+
+/**
+ * A change in the devices tracked by a {@link DiscoveryService}
+ * 
+ * @author Anthony
+ *
+ */
+public final class DeviceChangeEvent {
+
+    /**
+     * Kinds of change
+     * 
+     * @author Anthony
+     *
+     */
+    public static enum Kind {
+
+        /**
+         * A device answered for the first time
+         */
+        ADDED,
+
+        /**
+         * A known device answered from another IP address. Fired after
+         * {@link #TYPE_CHANGED} when the device type changed as well
+         */
+        MOVED,
+
+        /**
+         * A known device answered with another device type. If it moved too,
+         * a {@link #MOVED} event follows
+         */
+        TYPE_CHANGED,
+
+        /**
+         * A known device missed too many sweeps in a row and is no longer
+         * tracked
+         */
+        LOST
+
+    }
+
+    private final Kind kind;
+
+    private final DeviceDescriptor previous;
+
+    private final DeviceDescriptor current;
+
+    DeviceChangeEvent(Kind kind, DeviceDescriptor previous, DeviceDescriptor current) {
+        this.kind = kind;
+        this.previous = previous;
+        this.current = current;
+    }
+
+    /**
+     * Returns the kind of change
+     * 
+     * @return Kind of change
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the MAC address of the device that changed
+     * 
+     * @return MAC address
+     */
+    public Mac getMac() {
+        return current != null ? current.getMac() : previous.getMac();
+    }
+
+    /**
+     * Returns the device as it was before the change
+     * 
+     * @return The previous descriptor, or <code>null</code> for
+     *         {@link Kind#ADDED ADDED}
+     */
+    public DeviceDescriptor getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Returns the device as it is after the change
+     * 
+     * @return The current descriptor, or <code>null</code> for
+     *         {@link Kind#LOST LOST}
+     */
+    public DeviceDescriptor getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns whether the device now answers from another IP address
+     * 
+     * @return Whether the host changed
+     */
+    public boolean isMoved() {
+        return previous != null && current != null && !previous.getHost().equals(current.getHost());
+    }
+
+    @Override
+    public String toString() {
+        return kind + ": " + (previous == null ? "" : previous) + (previous != null && current != null ? " -> " : "")
+                + (current == null ? "" : current);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.dis;
+
+import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.ex.BLApiRuntimeException;
+import com.github.mob41.blapi.mac.Mac;
+
+/**
+ * Identifies a device found by a {@link Discovery}. A descriptor only holds
+ * what the discovery response told about the device, so it is cheap to
+ * create and to keep. The device client, with its session state, is created
+ * by {@link #open()} when the device is actually going to be used.
+ *
+ * @author Anthony
+ *
+ */
+public final class DeviceDescriptor {
+
+    private final Mac mac;
+
+    private final String host;
+
+    private final short deviceType;
+
+    private final String desc;
+
+    /**
+     * Creates a descriptor
+     *
+     * @param mac
+     *            MAC address of the device
+     * @param host
+     *            IP address the device answered from
+     * @param deviceType
+     *            Device type reported by the device
+     * @param desc
+     *            Friendly description of the device type, or
+     *            <code>null</code> if the type is not supported
+     */
+    public DeviceDescriptor(Mac mac, String host, short deviceType, String desc) {
+        if (mac == null || host == null) {
+            throw new NullPointerException("MAC address and host are required");
+        }
+        this.mac = mac;
+        this.host = host;
+        this.deviceType = deviceType;
+        this.desc = desc;
+    }
+
+    /**
+     * Returns the MAC address of the device
+     *
+     * @return MAC address
+     */
+    public Mac getMac() {
+        return mac;
+    }
+
+    /**
+     * Returns the IP address the device answered from
+     *
+     * @return Host address
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the device type reported by the device
+     *
+     * @return Device type
+     */
+    public short getDeviceType() {
+        return deviceType;
+    }
+
+    /**
+     * Returns the friendly description of the device type
+     *
+     * @return The description, or <code>null</code> if the device type is not
+     *         supported
+     */
+    public String getDeviceDescription() {
+        return desc;
+    }
+
+    /**
+     * Returns whether a client can be created for this device
+     *
+     * @return Whether the device type is supported
+     */
+    public boolean isSupported() {
+        return desc != null;
+    }
+
+    /**
+     * Creates a client of the device
+     *
+     * @return A new device client, not authenticated yet
+     * @throws BLApiRuntimeException
+     *             If the device type is not supported
+     */
+    public BLDevice open() {
+        return BLDevice.createInstance(deviceType, host, mac);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * mac.hashCode() + host.hashCode()) + deviceType;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DeviceDescriptor)) {
+            return false;
+        }
+        DeviceDescriptor other = (DeviceDescriptor) obj;
+        return deviceType == other.deviceType && mac.equals(other.mac) && host.equals(other.host);
+    }
+
+    @Override
+    public String toString() {
+        return (desc == null ? "Unknown device" : desc) + " (0x" + Integer.toHexString(deviceType & 0xffff) + ") "
+                + mac.getMacString() + " at " + host;
+    }
+
+}
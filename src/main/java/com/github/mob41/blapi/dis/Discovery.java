@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.dis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.net.DatagramTransport;
+import com.github.mob41.blapi.pkt.dis.DiscoveryPacket;
+
+/**
+ * A running device discovery. Devices are handed to the listener as soon as
+ * their responses arrive, and the discovery can be stopped early with
+ * {@link #close()}. The devices found are also collected into
+ * {@link #getResult() a future} completed when the discovery ends.
+ * 
+ * @author Anthony
+ *
+ */
+public final class Discovery implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Discovery.class);
+
+    /**
+     * The destination port for discovery broadcasting (from __init__.py)
+     */
+    public static final int DISCOVERY_DEST_PORT = 80;
+
+    /**
+     * Length of a discovery response, up to the MAC address
+     */
+    private static final int RESPONSE_LENGTH = 0x40;
+
+    /**
+     * Receive buffer size, large enough for a full discovery response
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 0x400;
+
+    /**
+     * Default maximum probes per second of a unicast sweep
+     */
+    public static final int DEFAULT_PROBE_RATE = 10000;
+
+    /**
+     * Default maximum probes sent back to back by a unicast sweep
+     */
+    public static final int DEFAULT_PROBE_BURST = 64;
+
+    private final Selector selector;
+
+    private final DiscoveryListener listener;
+
+    private final int timeout;
+
+    /**
+     * Unicast probes still to be sent, <code>null</code> for a broadcast
+     * discovery
+     */
+    private final ProbeSweep probe;
+
+    /**
+     * Channel the probes are sent from
+     */
+    private final DatagramChannel probeChannel;
+
+    private final List<DeviceDescriptor> devices = new ArrayList<>();
+
+    /**
+     * MAC addresses already reported. Only used by the discovery thread.
+     */
+    private final Set<Mac> seen = new HashSet<>();
+
+    private final CompletableFuture<List<DeviceDescriptor>> result = new CompletableFuture<>();
+
+    private Discovery(Selector selector, int timeout, DiscoveryListener listener) {
+        this(selector, timeout, listener, null, null);
+    }
+
+    private Discovery(Selector selector, int timeout, DiscoveryListener listener, ProbeSweep probe,
+            DatagramChannel probeChannel) {
+        this.selector = selector;
+        this.timeout = timeout;
+        this.listener = listener;
+        this.probe = probe;
+        this.probeChannel = probeChannel;
+        result.whenComplete((r, e) -> selector.wakeup());
+    }
+
+    /**
+     * Broadcasts a discovery packet from a local address and listens for
+     * responses in the background
+     * 
+     * @param sourceIpAddr
+     *            The IP address to be binded
+     * @param sourcePort
+     *            The port to be binded
+     * @param timeout
+     *            How long to listen for responses in ms. 0 stops at the first
+     *            device found
+     * @param listener
+     *            Receives each device found
+     * @return The running discovery
+     * @throws IOException
+     *             If the broadcast cannot be sent
+     */
+    public static Discovery start(InetAddress sourceIpAddr, int sourcePort, int timeout, DiscoveryListener listener)
+            throws IOException {
+        Selector selector = Selector.open();
+        try {
+            broadcast(selector, sourceIpAddr, sourcePort, InetAddress.getByName("255.255.255.255"));
+        } catch (IOException | RuntimeException e) {
+            closeAll(selector);
+            throw e;
+        }
+        return new Discovery(selector, timeout, listener).run();
+    }
+
+    /**
+     * Broadcasts a discovery packet on every local IPv4 network at once and
+     * listens for responses on all of them. Each network gets a
+     * subnet-directed broadcast carrying the address of the interface it is
+     * sent from, so a sweep takes one round trip whatever the number of
+     * interfaces. A device reachable through several interfaces is reported
+     * once.
+     * 
+     * @param timeout
+     *            How long to listen for responses in ms. 0 stops at the first
+     *            device found
+     * @param listener
+     *            Receives each device found
+     * @return The running discovery
+     * @throws IOException
+     *             If the broadcast could not be sent on any interface
+     */
+    public static Discovery startOnAllInterfaces(int timeout, DiscoveryListener listener) throws IOException {
+        Selector selector = Selector.open();
+        IOException failure = null;
+        int sent = 0;
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || nif.isLoopback()) {
+                    continue;
+                }
+                for (InterfaceAddress ifAddr : nif.getInterfaceAddresses()) {
+                    if (!(ifAddr.getAddress() instanceof Inet4Address) || ifAddr.getBroadcast() == null) {
+                        continue;
+                    }
+                    try {
+                        broadcast(selector, ifAddr.getAddress(), 0, ifAddr.getBroadcast());
+                        sent++;
+                    } catch (IOException e) {
+                        log.warn("Cannot broadcast on {} ({})", nif.getName(), ifAddr.getAddress(), e);
+                        failure = e;
+                    }
+                }
+            }
+
+            if (sent == 0) {
+                if (failure != null) {
+                    throw failure;
+                }
+                log.warn("No interface supports broadcast, falling back to the local host address");
+                broadcast(selector, InetAddress.getLocalHost(), 0, InetAddress.getByName("255.255.255.255"));
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(selector);
+            throw e;
+        }
+        return new Discovery(selector, timeout, listener).run();
+    }
+
+    /**
+     * Sends a discovery packet to every address of a list of networks and
+     * listens for responses in the background, at
+     * {@link #DEFAULT_PROBE_RATE the default rate}. For networks that
+     * broadcasts do not reach.
+     * 
+     * @param cidrs
+     *            IPv4 networks to probe, in CIDR notation (e.g.
+     *            10.1.0.0/16). A bare address probes that address only
+     * @param timeout
+     *            How long to listen for responses in ms after the last probe
+     *            is sent. 0 stops at the first device found
+     * @param listener
+     *            Receives each device found
+     * @return The running discovery
+     * @throws IOException
+     *             If the probe channel cannot be opened
+     */
+    public static Discovery startProbe(Collection<String> cidrs, int timeout, DiscoveryListener listener)
+            throws IOException {
+        return startProbe(cidrs, DEFAULT_PROBE_RATE, DEFAULT_PROBE_BURST, timeout, listener);
+    }
+
+    /**
+     * Sends a discovery packet to every address of a list of networks and
+     * listens for responses in the background. Every probe goes out of one
+     * non-blocking channel, paced to the given rate.
+     * 
+     * @param cidrs
+     *            IPv4 networks to probe, in CIDR notation (e.g.
+     *            10.1.0.0/16). A bare address probes that address only
+     * @param rate
+     *            Maximum probes per second
+     * @param burst
+     *            Maximum probes sent back to back
+     * @param timeout
+     *            How long to listen for responses in ms after the last probe
+     *            is sent. 0 stops at the first device found
+     * @param listener
+     *            Receives each device found
+     * @return The running discovery
+     * @throws IOException
+     *             If the probe channel cannot be opened
+     */
+    public static Discovery startProbe(Collection<String> cidrs, int rate, int burst, int timeout,
+            DiscoveryListener listener) throws IOException {
+        Selector selector = Selector.open();
+        DatagramChannel channel;
+        ProbeSweep probe;
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(0));
+            channel.register(selector, SelectionKey.OP_READ);
+
+            int boundPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            probe = new ProbeSweep(cidrs, boundPort, rate, burst);
+        } catch (IOException | RuntimeException e) {
+            closeAll(selector);
+            throw e;
+        }
+        return new Discovery(selector, timeout, listener, probe, channel).run();
+    }
+
+    /**
+     * Opens a channel on a local address and broadcasts a discovery packet
+     * from it, registering the channel to receive the responses
+     */
+    private static void broadcast(Selector selector, InetAddress localAddr, int localPort, InetAddress broadcastAddr)
+            throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(localAddr, localPort));
+            channel.register(selector, SelectionKey.OP_READ);
+
+            int boundPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+            DiscoveryPacket dpkt = new DiscoveryPacket(localAddr, boundPort);
+            log.debug("Sending broadcast from {} to {}", channel.getLocalAddress(), broadcastAddr);
+            channel.send(ByteBuffer.wrap(dpkt.getData()), new InetSocketAddress(broadcastAddr, DISCOVERY_DEST_PORT));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void closeAll(Selector selector) {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                log.warn("Error while closing discovery channel", e);
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Error while closing discovery selector", e);
+        }
+    }
+
+    private Discovery run() {
+        Thread t = new Thread(this::receiveLoop, "blapi-discovery");
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    /**
+     * Returns a future completed with every device found once the discovery
+     * ends. Cancelling it stops the discovery.
+     * 
+     * @return A future of the devices found
+     */
+    public CompletableFuture<List<DeviceDescriptor>> getResult() {
+        return result;
+    }
+
+    /**
+     * Waits until the discovery ends
+     * 
+     * @return Every device found
+     * @throws IOException
+     *             If listening for responses failed
+     */
+    public List<DeviceDescriptor> await() throws IOException {
+        return DatagramTransport.await(result);
+    }
+
+    /**
+     * Stops the discovery. The result is completed with the devices found so
+     * far.
+     */
+    @Override
+    public void close() {
+        complete();
+    }
+
+    private void receiveLoop() {
+        long deadline = System.currentTimeMillis() + timeout;
+        ByteBuffer buf = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        try {
+            while (!result.isDone()) {
+                if (probe != null && !probe.isDone()) {
+                    probe.send(probeChannel);
+                    if (probe.isDone()) {
+                        // listen for the full timeout after the last probe
+                        log.debug("Sent {} probes", probe.getSent());
+                        deadline = System.currentTimeMillis() + timeout;
+                    } else {
+                        selectAndReceive(probe.getDelay(), buf);
+                        continue;
+                    }
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (timeout > 0 && remaining <= 0) {
+                    break;
+                }
+                selectAndReceive(timeout > 0 ? remaining : 0, buf);
+            }
+            complete();
+        } catch (IOException e) {
+            log.error("Discovery failed", e);
+            result.completeExceptionally(e);
+        } finally {
+            closeAll(selector);
+            log.debug("Discovered {} devices", devices.size());
+        }
+    }
+
+    private void selectAndReceive(long wait, ByteBuffer buf) throws IOException {
+        selector.select(wait);
+
+        for (SelectionKey key : selector.selectedKeys()) {
+            DatagramChannel channel = (DatagramChannel) key.channel();
+            SocketAddress src;
+            buf.clear();
+            while (!result.isDone() && (src = channel.receive(buf)) != null) {
+                buf.flip();
+                onResponse((InetSocketAddress) src, buf);
+                buf.clear();
+            }
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private void onResponse(InetSocketAddress src, ByteBuffer buf) {
+        if (buf.remaining() < RESPONSE_LENGTH) {
+            log.debug("Ignoring {}-byte datagram from {}", buf.remaining(), src);
+            return;
+        }
+
+        String host = src.getAddress().getHostAddress();
+        byte[] macBytes = new byte[6];
+        for (int i = 0; i < 6; i++) {
+            macBytes[i] = buf.get(0x3f - i);
+        }
+        Mac mac = new Mac(macBytes);
+        if (!seen.add(mac)) {
+            log.debug("Ignoring repeated response of {} from {}", mac, host);
+            return;
+        }
+        short deviceType = (short) ((buf.get(0x34) & 0xff) | (buf.get(0x35) & 0xff) << 8);
+
+        log.debug("Info: host={} mac={} deviceType=0x{}", host, mac, Integer.toHexString(deviceType & 0xffff));
+
+        DeviceDescriptor device = new DeviceDescriptor(mac, host, deviceType, BLDevice.describeDeviceType(deviceType));
+        if (!device.isSupported()) {
+            log.debug("Device type 0x{} at {} is not supported", Integer.toHexString(deviceType & 0xffff), host);
+        }
+
+        synchronized (devices) {
+            devices.add(device);
+        }
+        try {
+            listener.onDeviceFound(device);
+        } catch (RuntimeException e) {
+            log.warn("Discovery listener failed", e);
+        }
+
+        if (timeout == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        List<DeviceDescriptor> found;
+        synchronized (devices) {
+            found = new ArrayList<>(devices);
+        }
+        result.complete(found);
+    }
+
+}
@@ -0,0 +1,365 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.dis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.dis.DeviceChangeEvent.Kind;
+import com.github.mob41.blapi.mac.Mac;
+
+/**
+ * Keeps track of the devices in the local network by discovering them
+ * repeatedly in the background. Each sweep updates the tracked devices in
+ * place, so they stay available between sweeps, and only the differences are
+ * reported to the listener: new devices, devices that moved to another IP
+ * address or changed type, and devices that stopped answering for a number
+ * of sweeps in a row.
+ * 
+ * @author Anthony
+ *
+ */
+public final class DiscoveryService implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DiscoveryService.class);
+
+    /**
+     * Default time between the end of a sweep and the start of the next (1
+     * minute)
+     */
+    public static final long DEFAULT_INTERVAL = 60000;
+
+    /**
+     * Default fraction of the interval the delay is randomly varied by
+     */
+    public static final double DEFAULT_JITTER = 0.1;
+
+    /**
+     * Default time each sweep listens for responses (5 seconds)
+     */
+    public static final int DEFAULT_SWEEP_TIMEOUT = 5000;
+
+    /**
+     * Default number of sweeps in a row a device can miss before it is lost
+     */
+    public static final int DEFAULT_MAX_MISSED_SWEEPS = 3;
+
+    private final DeviceChangeListener listener;
+
+    private final Map<Mac, DeviceDescriptor> devices = new ConcurrentHashMap<>();
+
+    /**
+     * Sweeps missed in a row by each tracked device that missed any
+     */
+    private final Map<Mac, Integer> missed = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long interval = DEFAULT_INTERVAL;
+
+    private volatile double jitter = DEFAULT_JITTER;
+
+    private volatile int sweepTimeout = DEFAULT_SWEEP_TIMEOUT;
+
+    private volatile int maxMissedSweeps = DEFAULT_MAX_MISSED_SWEEPS;
+
+    private volatile Discovery current;
+
+    private volatile boolean started;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a discovery service. Sweeps begin on {@link #start()}.
+     * 
+     * @param listener
+     *            Receives the changes found by each sweep
+     */
+    public DiscoveryService(DeviceChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener is required");
+        }
+        this.listener = listener;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "blapi-discovery-service");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        scheduler = executor;
+    }
+
+    /**
+     * Returns the time between the end of a sweep and the start of the next
+     * 
+     * @return Interval in ms
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the time between the end of a sweep and the start of the next,
+     * applied from the next sweep on
+     * 
+     * @param interval
+     *            Interval in ms, at least 1
+     */
+    public void setInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be at least 1 ms: " + interval);
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Returns the fraction of the interval the delay is randomly varied by
+     * 
+     * @return Jitter between 0 and 1
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Sets the fraction of the interval the delay is randomly varied by, so
+     * that several controllers do not sweep in lock step
+     * 
+     * @param jitter
+     *            Jitter between 0 (none) and 1
+     */
+    public void setJitter(double jitter) {
+        if (!(jitter >= 0 && jitter <= 1)) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Returns the time each sweep listens for responses
+     * 
+     * @return Sweep timeout in ms
+     */
+    public int getSweepTimeout() {
+        return sweepTimeout;
+    }
+
+    /**
+     * Sets the time each sweep listens for responses
+     * 
+     * @param sweepTimeout
+     *            Sweep timeout in ms, at least 1
+     */
+    public void setSweepTimeout(int sweepTimeout) {
+        if (sweepTimeout < 1) {
+            throw new IllegalArgumentException("Sweep timeout must be at least 1 ms: " + sweepTimeout);
+        }
+        this.sweepTimeout = sweepTimeout;
+    }
+
+    /**
+     * Returns the number of sweeps in a row a device can miss before it is
+     * lost
+     * 
+     * @return Maximum missed sweeps
+     */
+    public int getMaxMissedSweeps() {
+        return maxMissedSweeps;
+    }
+
+    /**
+     * Sets the number of sweeps in a row a device can miss before it is lost
+     * 
+     * @param maxMissedSweeps
+     *            Maximum missed sweeps, at least 1
+     */
+    public void setMaxMissedSweeps(int maxMissedSweeps) {
+        if (maxMissedSweeps < 1) {
+            throw new IllegalArgumentException("Max missed sweeps must be at least 1: " + maxMissedSweeps);
+        }
+        this.maxMissedSweeps = maxMissedSweeps;
+    }
+
+    /**
+     * Returns the devices currently tracked, keyed by MAC address. The map is
+     * a live view, updated as responses arrive.
+     * 
+     * @return Unmodifiable view of the tracked devices
+     */
+    public Map<Mac, DeviceDescriptor> getDevices() {
+        return Collections.unmodifiableMap(devices);
+    }
+
+    /**
+     * Returns a tracked device
+     * 
+     * @param mac
+     *            MAC address of the device
+     * @return The device, or <code>null</code> if it is not tracked
+     */
+    public DeviceDescriptor getDevice(Mac mac) {
+        return devices.get(mac);
+    }
+
+    /**
+     * Starts sweeping. The first sweep begins immediately.
+     * 
+     * @return This service
+     */
+    public synchronized DiscoveryService start() {
+        if (closed) {
+            throw new IllegalStateException("Discovery service is closed");
+        }
+        if (!started) {
+            started = true;
+            schedule(0);
+        }
+        return this;
+    }
+
+    /**
+     * Stops sweeping. A sweep in progress is abandoned without reporting lost
+     * devices.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        Discovery d = current;
+        if (d != null) {
+            d.close();
+        }
+    }
+
+    private void schedule(long delay) {
+        try {
+            scheduler.schedule(this::sweep, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    private void scheduleNext() {
+        long base = interval;
+        long spread = (long) (base * jitter);
+        long delay = spread > 0 ? base + ThreadLocalRandom.current().nextLong(-spread, spread + 1) : base;
+        schedule(Math.max(delay, 0));
+    }
+
+    private void sweep() {
+        if (closed) {
+            return;
+        }
+
+        Set<Mac> seen = ConcurrentHashMap.newKeySet();
+        Discovery d;
+        try {
+            d = Discovery.startOnAllInterfaces(sweepTimeout, device -> onDeviceFound(seen, device));
+        } catch (IOException e) {
+            // a failed broadcast says nothing about the devices, keep them
+            log.warn("Cannot start discovery sweep", e);
+            scheduleNext();
+            return;
+        }
+
+        current = d;
+        d.getResult().whenComplete((found, e) -> {
+            current = null;
+            if (closed) {
+                return;
+            }
+            if (e != null) {
+                log.warn("Discovery sweep failed", e);
+            } else {
+                endSweep(seen);
+            }
+            scheduleNext();
+        });
+    }
+
+    private void onDeviceFound(Set<Mac> seen, DeviceDescriptor device) {
+        Mac mac = device.getMac();
+        seen.add(mac);
+        missed.remove(mac);
+
+        DeviceDescriptor previous = devices.put(mac, device);
+        if (previous == null) {
+            fire(new DeviceChangeEvent(Kind.ADDED, null, device));
+            return;
+        }
+        // a device can change both at once, listeners get one event each
+        if (previous.getDeviceType() != device.getDeviceType()) {
+            fire(new DeviceChangeEvent(Kind.TYPE_CHANGED, previous, device));
+        }
+        if (!previous.getHost().equals(device.getHost())) {
+            fire(new DeviceChangeEvent(Kind.MOVED, previous, device));
+        }
+    }
+
+    private void endSweep(Set<Mac> seen) {
+        int max = maxMissedSweeps;
+        for (Mac mac : devices.keySet()) {
+            if (seen.contains(mac)) {
+                continue;
+            }
+            int count = missed.merge(mac, 1, Integer::sum);
+            log.debug("{} missed {} sweeps", mac, count);
+            if (count >= max) {
+                missed.remove(mac);
+                DeviceDescriptor previous = devices.remove(mac);
+                if (previous != null) {
+                    fire(new DeviceChangeEvent(Kind.LOST, previous, null));
+                }
+            }
+        }
+    }
+
+    private void fire(DeviceChangeEvent event) {
+        log.debug("Device change {}", event);
+        try {
+            listener.onDeviceChange(event);
+        } catch (RuntimeException e) {
+            log.warn("Device change listener failed", e);
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.dis;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.pkt.dis.DiscoveryPacket;
+
+/**
+ * Sends a discovery packet to every address of a list of IPv4 networks, for
+ * networks that broadcasts do not reach. The probes all go out of one
+ * non-blocking channel, paced by a token bucket: at most <code>rate</code>
+ * probes per second, and no more than <code>burst</code> back to back.
+ * Addresses are generated as they are probed, so large networks take no
+ * memory.
+ * 
+ * @author Anthony
+ *
+ */
+final class ProbeSweep {
+
+    private static final Logger log = LoggerFactory.getLogger(ProbeSweep.class);
+
+    /**
+     * A range of addresses probed with the same packet
+     */
+    private static final class Range {
+
+        private final long first;
+
+        private final long last;
+
+        private final ByteBuffer packet;
+
+        private Range(long first, long last, ByteBuffer packet) {
+            this.first = first;
+            this.last = last;
+            this.packet = packet;
+        }
+
+    }
+
+    private final List<Range> ranges;
+
+    private final int rate;
+
+    private final int burst;
+
+    private final byte[] addr = new byte[4];
+
+    private int rangeIndex;
+
+    private long next;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    private int sent;
+
+    /**
+     * Prepares a sweep
+     * 
+     * @param cidrs
+     *            Networks to probe, in CIDR notation (e.g. 192.168.1.0/24). A
+     *            bare address probes that address only
+     * @param localPort
+     *            Port the responses are received on
+     * @param rate
+     *            Maximum probes per second
+     * @param burst
+     *            Maximum probes sent back to back
+     * @throws IOException
+     *             If the local address towards a network cannot be found
+     */
+    ProbeSweep(Collection<String> cidrs, int localPort, int rate, int burst) throws IOException {
+        if (rate < 1 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be at least 1: " + rate + ", " + burst);
+        }
+        this.rate = rate;
+        this.burst = burst;
+
+        ranges = new ArrayList<>(cidrs.size());
+        for (String cidr : cidrs) {
+            ranges.add(parse(cidr, localPort));
+        }
+        if (!ranges.isEmpty()) {
+            next = ranges.get(0).first;
+        }
+        tokens = burst;
+        lastRefill = System.nanoTime();
+    }
+
+    private static Range parse(String cidr, int localPort) throws IOException {
+        int slash = cidr.indexOf('/');
+        String host = slash < 0 ? cidr : cidr.substring(0, slash);
+        int prefix;
+        try {
+            prefix = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid network prefix: " + cidr, e);
+        }
+        if (prefix < 0 || prefix > 32) {
+            throw new IllegalArgumentException("Invalid network prefix: " + cidr);
+        }
+
+        InetAddress base;
+        try {
+            base = InetAddress.getByName(host);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid network address: " + cidr, e);
+        }
+        if (!(base instanceof Inet4Address)) {
+            throw new IllegalArgumentException("Only IPv4 networks can be probed: " + cidr);
+        }
+
+        byte[] b = base.getAddress();
+        long ip = ((b[0] & 0xffL) << 24) | ((b[1] & 0xff) << 16) | ((b[2] & 0xff) << 8) | (b[3] & 0xff);
+        long size = 1L << (32 - prefix);
+        long first = ip & ~(size - 1) & 0xffffffffL;
+        long last = first + size - 1;
+        if (size > 2) {
+            // skip the network and broadcast addresses
+            first++;
+            last--;
+        }
+
+        // the device is told the address of the interface routing to it
+        InetAddress localAddr;
+        try (DatagramChannel route = DatagramChannel.open()) {
+            route.connect(new InetSocketAddress(base, Discovery.DISCOVERY_DEST_PORT));
+            localAddr = ((InetSocketAddress) route.getLocalAddress()).getAddress();
+        }
+        log.debug("Probing {} ({} addresses) from {}", cidr, last - first + 1, localAddr);
+
+        DiscoveryPacket dpkt = new DiscoveryPacket(localAddr, localPort);
+        return new Range(first, last, ByteBuffer.wrap(dpkt.getData()));
+    }
+
+    /**
+     * Returns whether every address has been probed
+     * 
+     * @return Whether the sweep is done
+     */
+    boolean isDone() {
+        return rangeIndex >= ranges.size();
+    }
+
+    /**
+     * Returns the number of probes sent so far
+     * 
+     * @return Probes sent
+     */
+    int getSent() {
+        return sent;
+    }
+
+    /**
+     * Sends the probes the rate allows now
+     * 
+     * @param channel
+     *            Non-blocking channel to send from
+     * @throws IOException
+     *             If sending fails
+     */
+    void send(DatagramChannel channel) throws IOException {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+
+        while (tokens >= 1 && !isDone()) {
+            Range range = ranges.get(rangeIndex);
+            addr[0] = (byte) (next >>> 24);
+            addr[1] = (byte) (next >>> 16);
+            addr[2] = (byte) (next >>> 8);
+            addr[3] = (byte) next;
+
+            range.packet.rewind();
+            if (channel.send(range.packet, new InetSocketAddress(InetAddress.getByAddress(addr),
+                    Discovery.DISCOVERY_DEST_PORT)) == 0) {
+                // send buffer full, retry on the next call
+                return;
+            }
+            tokens--;
+            sent++;
+
+            if (next++ >= range.last && ++rangeIndex < ranges.size()) {
+                next = ranges.get(rangeIndex).first;
+            }
+        }
+    }
+
+    /**
+     * Returns how long to wait before probes can be sent again
+     * 
+     * @return Delay in ms, at least 1
+     */
+    long getDelay() {
+        double missing = 1 - tokens;
+        return Math.max(1, (long) Math.ceil(missing * 1000 / rate));
+    }
+
+}
@@ -3,7 +3,24 @@ package com.github.mob41.blapi.ex;
 public class BLApiErrorResponseException extends BLApiRuntimeException {
     private static final long serialVersionUID = -2282068764282969897L;
 
+    private final int err;
+
     public BLApiErrorResponseException(String function, int err) {
         super("RM2 "+function+" received error: " + Integer.toHexString(err) + " / " + err);
+        this.err = err;
+    }
+
+    protected BLApiErrorResponseException(int err, String message) {
+        super(message);
+        this.err = err;
+    }
+
+    /**
+     * Returns the error code reported by the device
+     * 
+     * @return The error code
+     */
+    public int getErr() {
+        return err;
     }
 }
@@ -28,6 +28,7 @@
  *******************************************************************************/
 package com.github.mob41.blapi.mac;
 
+import java.util.Arrays;
 
 /**
  * A class that handles a MAC address in String and bytes array format
@@ -145,6 +146,22 @@ public class Mac {
         return macBytes != null && macBytes.length == 6;
     }
 
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mac);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Mac)) {
+            return false;
+        }
+        return Arrays.equals(mac, ((Mac) obj).mac);
+    }
+
     @Override
     public String toString() {
         return getMacString();
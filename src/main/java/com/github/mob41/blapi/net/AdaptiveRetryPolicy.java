@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+/**
+ * Estimates the retransmission timeout of one device from its measured round
+ * trip times, the way TCP does (RFC 6298). The timeout doubles on every
+ * re-send of the same packet. Responses to re-sent packets are not used as
+ * samples, since they cannot be attributed to a single attempt.<br>
+ * <br>
+ * An instance keeps per-device state and must not be shared between devices.
+ *
+ * @author Anthony
+ *
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+
+    /**
+     * Gain of the smoothed RTT (1/8)
+     */
+    private static final double ALPHA = 0.125;
+
+    /**
+     * Gain of the RTT variance (1/4)
+     */
+    private static final double BETA = 0.25;
+
+    /**
+     * Lower bound of the variance term in ms (clock granularity)
+     */
+    private static final double GRANULARITY = 1;
+
+    private final long minRto;
+
+    private final long maxRto;
+
+    private final int maxAttempts;
+
+    private double srtt;
+
+    private double rttvar;
+
+    private long rto;
+
+    private boolean sampled;
+
+    /**
+     * Creates an adaptive policy starting from a 1 second timeout, bounded
+     * between 20 ms and 5 seconds, with at most 8 attempts
+     */
+    public AdaptiveRetryPolicy() {
+        this(1000, 20, 5000, 8);
+    }
+
+    /**
+     * Creates an adaptive policy
+     *
+     * @param initialRto
+     *            Timeout in ms used until the first round trip is measured
+     * @param minRto
+     *            Lower bound of the timeout in ms
+     * @param maxRto
+     *            Upper bound of the timeout in ms
+     * @param maxAttempts
+     *            Maximum attempts, or 0 for no limit
+     */
+    public AdaptiveRetryPolicy(long initialRto, long minRto, long maxRto, int maxAttempts) {
+        if (minRto <= 0 || maxRto < minRto) {
+            throw new IllegalArgumentException("Invalid bounds: min=" + minRto + " max=" + maxRto);
+        }
+        this.minRto = minRto;
+        this.maxRto = maxRto;
+        this.maxAttempts = maxAttempts;
+        this.rto = clamp(initialRto);
+    }
+
+    @Override
+    public synchronized long getRetransmitDelay(int attempt) {
+        // double the timeout on every re-send of the same packet
+        return clamp(rto << Math.min(attempt - 1, 16));
+    }
+
+    @Override
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @Override
+    public synchronized void onResponse(long rttNanos, int attempts) {
+        if (attempts > 1) {
+            return;
+        }
+
+        double r = rttNanos / 1e6;
+        if (!sampled) {
+            srtt = r;
+            rttvar = r / 2;
+            sampled = true;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - r);
+            srtt = (1 - ALPHA) * srtt + ALPHA * r;
+        }
+        rto = clamp((long) Math.ceil(srtt + Math.max(GRANULARITY, 4 * rttvar)));
+    }
+
+    /**
+     * Returns the smoothed round trip time
+     *
+     * @return Smoothed RTT in ms, or 0 if nothing was measured yet
+     */
+    public synchronized double getSmoothedRtt() {
+        return srtt;
+    }
+
+    /**
+     * Returns the round trip time variance
+     *
+     * @return RTT variance in ms, or 0 if nothing was measured yet
+     */
+    public synchronized double getRttVariance() {
+        return rttvar;
+    }
+
+    /**
+     * Returns the current retransmission timeout of a first attempt
+     *
+     * @return Timeout in ms
+     */
+    public synchronized long getRetransmitTimeout() {
+        return rto;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minRto, Math.min(maxRto, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveRetryPolicy [srtt=" + srtt + ", rttvar=" + rttvar + ", rto=" + rto + "]";
+    }
+
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A pool of fixed-size direct <code>ByteBuffer</code>s for the send and
+ * receive paths. Taking and returning a buffer creates no garbage once the
+ * pool is warm. If the pool is empty a new buffer is allocated, and buffers
+ * returned to a full pool are left to the garbage collector, so a buffer
+ * that is never returned only costs an allocation.
+ *
+ * @author Anthony
+ *
+ */
+public class BufferPool {
+
+    /**
+     * Default buffer size, larger than any packet exchanged with a device
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 0x1000; // 4096-bytes
+
+    /**
+     * Default number of idle buffers kept by a pool
+     */
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int bufferSize;
+
+    private final ByteBuffer[] idle;
+
+    private int idleCount;
+
+    private long allocated;
+
+    /**
+     * Creates a buffer pool
+     *
+     * @param bufferSize
+     *            Capacity of every buffer
+     * @param maxPooled
+     *            Maximum number of idle buffers kept
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.idle = new ByteBuffer[maxPooled];
+    }
+
+    /**
+     * Returns the pool shared by the library
+     *
+     * @return The shared pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Takes a cleared little-endian buffer from the pool
+     *
+     * @return A buffer of {@link #getBufferSize()} capacity
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = null;
+        synchronized (this) {
+            if (idleCount > 0) {
+                buf = idle[--idleCount];
+                idle[idleCount] = null;
+            } else {
+                allocated++;
+            }
+        }
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buf.clear();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    /**
+     * Takes a buffer from the pool holding a copy of <code>data</code>, ready
+     * to be read. Data too large for the pool is wrapped instead.
+     *
+     * @param data
+     *            The bytes to copy
+     * @return A buffer holding the bytes between its position and limit
+     */
+    public ByteBuffer copyOf(byte[] data) {
+        if (data.length > bufferSize) {
+            return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer buf = acquire();
+        buf.put(data).flip();
+        return buf;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     * Buffers not taken from a pool of this size are ignored.
+     *
+     * @param buf
+     *            The buffer, may be <code>null</code>
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect() || buf.capacity() != bufferSize) {
+            return;
+        }
+        synchronized (this) {
+            if (idleCount < idle.length) {
+                idle[idleCount++] = buf;
+            }
+        }
+    }
+
+    /**
+     * Returns the capacity of the buffers in this pool
+     *
+     * @return Buffer capacity in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the number of buffers this pool had to allocate because no
+     * idle buffer was available. A value that stops growing shows the pool
+     * reached its steady state.
+     *
+     * @return Allocated buffer count
+     */
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+
+    /**
+     * Returns the number of idle buffers in the pool
+     *
+     * @return Idle buffer count
+     */
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+}
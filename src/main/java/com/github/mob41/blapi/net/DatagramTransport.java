@@ -0,0 +1,639 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.ex.BLApiRuntimeException;
+
+/**
+ * A non-blocking UDP transport shared by many <code>BLDevice</code>
+ * instances.<br>
+ * <br>
+ * All packets are sent from one <code>DatagramChannel</code> and a single I/O
+ * thread receives every response. A response is handed back to the waiting
+ * request by its source address, the device MAC and the packet counter (see
+ * {@link ExchangeKey}). Datagrams that do not match an outstanding request
+ * are discarded.<br>
+ * <br>
+ * Re-sends and timeouts of all exchanges are driven by one shared timer
+ * thread, as told by each exchange's {@link RetryPolicy}. Futures returned by
+ * <code>exchangeAsync</code> are completed on the I/O thread, so
+ * long-running dependent stages should use the <code>*Async</code> variants
+ * of <code>CompletableFuture</code>.<br>
+ * <br>
+ * Packets and responses are held in direct buffers taken from a
+ * {@link BufferPool}. Callers of the <code>ByteBuffer</code> variant of
+ * {@link #exchangeAsync(ByteBuffer, InetSocketAddress, int, RetryPolicy)
+ * exchangeAsync} hand pooled buffers in and out, so a round trip allocates
+ * no buffers once the pool is warm.
+ *
+ * @author Anthony
+ *
+ */
+public class DatagramTransport implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(DatagramTransport.class);
+
+    /**
+     * The transport used by devices unless told otherwise
+     */
+    private static DatagramTransport defaultTransport;
+
+    private final DatagramChannel channel;
+
+    private final Selector selector;
+
+    private final Thread ioThread;
+
+    private final ScheduledExecutorService timer;
+
+    private final ConcurrentMap<ExchangeKey, Exchange> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    private final BufferPool pool;
+
+    /**
+     * Buffer the next datagram is received into. Only used by the I/O
+     * thread, and handed over to the exchange it answers.
+     */
+    private ByteBuffer receiveBuffer;
+
+    private volatile WireTap wireTap = WireTap.NONE;
+
+    private volatile boolean closed;
+
+    /**
+     * Opens a transport bound to an ephemeral port on all local addresses
+     *
+     * @throws IOException
+     *             If the channel cannot be opened
+     */
+    public DatagramTransport() throws IOException {
+        this(new InetSocketAddress(0), BufferPool.getDefault());
+    }
+
+    /**
+     * Opens a transport bound to a specific local address
+     *
+     * @param bindAddr
+     *            Local address to bind the channel to
+     * @throws IOException
+     *             If the channel cannot be opened
+     */
+    public DatagramTransport(InetSocketAddress bindAddr) throws IOException {
+        this(bindAddr, BufferPool.getDefault());
+    }
+
+    /**
+     * Opens a transport bound to a specific local address, taking its
+     * buffers from the given pool
+     *
+     * @param bindAddr
+     *            Local address to bind the channel to
+     * @param pool
+     *            Pool of the packet and response buffers
+     * @throws IOException
+     *             If the channel cannot be opened
+     */
+    public DatagramTransport(InetSocketAddress bindAddr, BufferPool pool) throws IOException {
+        this.pool = pool;
+        this.receiveBuffer = pool.acquire();
+
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+        channel.configureBlocking(false);
+        channel.bind(bindAddr);
+
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        ioThread = new Thread(this::receiveLoop, "blapi-transport-" + channel.getLocalAddress());
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "blapi-transport-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        stpe.setRemoveOnCancelPolicy(true);
+        timer = stpe;
+
+        log.debug("Transport opened on {}", channel.getLocalAddress());
+    }
+
+    /**
+     * Returns the transport shared by all devices, opening it on first use
+     *
+     * @return The shared transport
+     */
+    public static synchronized DatagramTransport getDefault() {
+        if (defaultTransport == null || defaultTransport.closed) {
+            try {
+                defaultTransport = new DatagramTransport();
+            } catch (IOException e) {
+                throw new BLApiRuntimeException("Cannot open the shared transport", e);
+            }
+        }
+        return defaultTransport;
+    }
+
+    /**
+     * Returns the local address this transport is bound to
+     *
+     * @return The local socket address
+     * @throws IOException
+     *             If the channel is closed
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    /**
+     * Returns the pool of the packet and response buffers
+     *
+     * @return The buffer pool
+     */
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the tap observing the traffic of this transport
+     *
+     * @return The wire tap, {@link WireTap#NONE} by default
+     */
+    public WireTap getWireTap() {
+        return wireTap;
+    }
+
+    /**
+     * Installs a tap observing the traffic of this transport
+     *
+     * @param wireTap
+     *            The wire tap, or {@link WireTap#NONE} to stop tracing
+     */
+    public void setWireTap(WireTap wireTap) {
+        if (wireTap == null) {
+            throw new NullPointerException("wireTap");
+        }
+        this.wireTap = wireTap;
+    }
+
+    /**
+     * Returns the number of received datagrams that matched no outstanding
+     * exchange, such as late replies to timed-out requests or duplicates of
+     * replies already delivered
+     *
+     * @return Discarded datagram count
+     */
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+
+    /**
+     * Sends a packet and waits for its response, re-sending the packet as
+     * told by the retry policy until a response arrives, the policy gives up
+     * or the timeout expires.
+     *
+     * @param data
+     *            The compiled packet, carrying a counter and MAC at 0x28-0x2f
+     * @param dest
+     *            Destination address
+     * @param timeout
+     *            Overall timeout in ms. 0 waits indefinitely
+     * @param policy
+     *            Decides when the packet is re-sent
+     * @return The response datagram, with data of exactly the received length
+     * @throws SocketTimeoutException
+     *             If no response arrived in time
+     * @throws IOException
+     *             If the packet cannot be sent
+     */
+    public DatagramPacket exchange(byte[] data, InetSocketAddress dest, int timeout, RetryPolicy policy)
+            throws IOException {
+        return await(exchangeAsync(data, dest, timeout, policy));
+    }
+
+    /**
+     * Sends a packet and returns a future of its response. The packet is
+     * re-sent by the shared timer as told by the retry policy until a
+     * response arrives, the policy gives up, the timeout expires or the
+     * future is cancelled.
+     *
+     * @param data
+     *            The compiled packet, carrying a counter and MAC at 0x28-0x2f
+     * @param dest
+     *            Destination address
+     * @param timeout
+     *            Overall timeout in ms. 0 waits indefinitely
+     * @param policy
+     *            Decides when the packet is re-sent
+     * @return A future completed with the response datagram, or exceptionally
+     *         with a <code>SocketTimeoutException</code> if no response
+     *         arrived in time
+     */
+    public CompletableFuture<DatagramPacket> exchangeAsync(byte[] data, InetSocketAddress dest, int timeout,
+            RetryPolicy policy) {
+        CompletableFuture<ByteBuffer> exchange = exchangeAsync(pool.copyOf(data), dest, timeout, policy);
+        CompletableFuture<DatagramPacket> result = new CompletableFuture<>();
+        result.whenComplete((r, e) -> {
+            if (e != null) {
+                exchange.cancel(false);
+            }
+        });
+        exchange.whenComplete((response, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            // copied even if the result was cancelled, so the buffer goes back to the pool
+            byte[] rece = new byte[response.remaining()];
+            response.get(rece);
+            pool.release(response);
+            result.complete(new DatagramPacket(rece, rece.length, dest));
+        });
+        return result;
+    }
+
+    /**
+     * Sends a packet held in a buffer and returns a future of its response.
+     * This works like {@link #exchangeAsync(byte[], InetSocketAddress, int,
+     * RetryPolicy) exchangeAsync(byte[], ...)} without copying the packet
+     * or the response into arrays.<br>
+     * <br>
+     * The transport takes ownership of <code>packet</code> and returns it to
+     * the pool when the exchange ends. The response buffer is taken from the
+     * pool, and the caller should hand it back with
+     * <code>getPool().release(response)</code> when done with it.
+     *
+     * @param packet
+     *            Buffer holding the compiled packet between its position and
+     *            limit
+     * @param dest
+     *            Destination address
+     * @param timeout
+     *            Overall timeout in ms. 0 waits indefinitely
+     * @param policy
+     *            Decides when the packet is re-sent
+     * @return A future completed with the response, positioned at 0 with the
+     *         received length as limit
+     */
+    public CompletableFuture<ByteBuffer> exchangeAsync(ByteBuffer packet, InetSocketAddress dest, int timeout,
+            RetryPolicy policy) {
+        ExchangeKey key = ExchangeKey.of(dest, packet);
+        Exchange exchange = new Exchange(key, packet, dest, policy);
+        CompletableFuture<ByteBuffer> future = exchange.future;
+        if (closed) {
+            exchange.releasePacket();
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        if (pending.putIfAbsent(key, exchange) != null) {
+            exchange.releasePacket();
+            future.completeExceptionally(new BLApiRuntimeException("An exchange is already in progress for " + key));
+            return future;
+        }
+
+        ScheduledFuture<?> expiry;
+        try {
+            expiry = timeout <= 0 ? null : timer.schedule(() -> future.completeExceptionally(
+                    new SocketTimeoutException("No response from " + dest + " within " + timeout + " ms")),
+                    timeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed since the check above
+            pending.remove(key, exchange);
+            exchange.releasePacket();
+            future.completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+
+        future.whenComplete((r, e) -> {
+            pending.remove(key, exchange);
+            exchange.cancelResend();
+            exchange.releasePacket();
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+        });
+
+        exchange.send();
+        return future;
+    }
+
+    /**
+     * Waits for an exchange started by {@link #exchangeAsync exchangeAsync},
+     * unwrapping its failure
+     *
+     * @param future
+     *            The exchange future
+     * @param <T>
+     *            Result type
+     * @return The exchange result
+     * @throws IOException
+     *             The I/O failure of the exchange, including
+     *             <code>SocketTimeoutException</code>
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Sends a packet without waiting for a response
+     *
+     * @param data
+     *            The compiled packet
+     * @param dest
+     *            Destination address
+     * @throws IOException
+     *             If the packet cannot be sent
+     */
+    public void send(byte[] data, InetSocketAddress dest) throws IOException {
+        send(ByteBuffer.wrap(data), dest);
+    }
+
+    /**
+     * Sends the bytes between a buffer's position and limit without waiting
+     * for a response. The buffer's position is advanced past the sent bytes.
+     *
+     * @param data
+     *            Buffer holding the compiled packet
+     * @param dest
+     *            Destination address
+     * @throws IOException
+     *             If the packet cannot be sent
+     */
+    public void send(ByteBuffer data, InetSocketAddress dest) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        WireTap tap = wireTap;
+        if (tap != WireTap.NONE) {
+            try {
+                tap.onPacketSent(dest, data.duplicate());
+            } catch (RuntimeException e) {
+                log.warn("Wire tap failed", e);
+            }
+        }
+        int len = data.remaining();
+        if (channel.send(data, dest) == 0) {
+            log.warn("Send buffer full, dropped {} bytes to {}", len, dest);
+        }
+    }
+
+    private void receiveLoop() {
+        while (!closed) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                SocketAddress src;
+                while (!closed && (src = receive()) != null) {
+                    dispatch(src);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Transport receive loop failed", e);
+                }
+            }
+        }
+
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Error while closing transport", e);
+        }
+        log.debug("Transport receive loop ended");
+    }
+
+    private SocketAddress receive() throws IOException {
+        receiveBuffer.clear();
+        SocketAddress src = channel.receive(receiveBuffer);
+        if (src != null && !receiveBuffer.hasRemaining()) {
+            log.warn("Datagram from {} filled the {}-byte receive buffer and may be truncated", src,
+                    receiveBuffer.capacity());
+        }
+        receiveBuffer.flip();
+        return src;
+    }
+
+    private void dispatch(SocketAddress src) {
+        WireTap tap = wireTap;
+        if (tap != WireTap.NONE) {
+            try {
+                tap.onPacketReceived(src, receiveBuffer.duplicate());
+            } catch (RuntimeException e) {
+                log.warn("Wire tap failed", e);
+            }
+        }
+
+        int len = receiveBuffer.remaining();
+        if (len < ExchangeKey.MIN_LENGTH) {
+            log.debug("Discarding {}-byte datagram from {}", len, src);
+            discarded.incrementAndGet();
+            return;
+        }
+
+        ExchangeKey key = ExchangeKey.of(src, receiveBuffer);
+        Exchange exchange = pending.remove(key);
+        if (exchange == null) {
+            log.debug("Discarding stale or duplicate datagram {}", key);
+            discarded.incrementAndGet();
+            return;
+        }
+
+        ByteBuffer response = receiveBuffer;
+        receiveBuffer = pool.acquire();
+        if (!exchange.complete(response)) {
+            pool.release(response);
+        }
+    }
+
+    /**
+     * Closes the channel and fails every outstanding exchange
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        timer.shutdownNow();
+        ClosedChannelException ex = new ClosedChannelException();
+        pending.values().forEach(e -> e.future.completeExceptionally(ex));
+        pending.clear();
+    }
+
+    /**
+     * State of one outstanding exchange: the packet, its attempts and the
+     * next scheduled re-send
+     */
+    private final class Exchange implements Runnable {
+
+        private final ExchangeKey key;
+
+        /**
+         * The packet, owned by the exchange until it ends
+         */
+        private ByteBuffer packet;
+
+        private final int start;
+
+        private final InetSocketAddress dest;
+
+        private final RetryPolicy policy;
+
+        private final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+
+        private int attempts;
+
+        private volatile long lastSentAt;
+
+        private volatile ScheduledFuture<?> resend;
+
+        private Exchange(ExchangeKey key, ByteBuffer packet, InetSocketAddress dest, RetryPolicy policy) {
+            this.key = key;
+            this.packet = packet;
+            this.start = packet.position();
+            this.dest = dest;
+            this.policy = policy;
+        }
+
+        /**
+         * Sends an attempt and schedules the next one
+         */
+        private synchronized void send() {
+            if (future.isDone() || packet == null) {
+                return;
+            }
+            attempts++;
+            lastSentAt = System.nanoTime();
+            try {
+                packet.position(start);
+                DatagramTransport.this.send(packet, dest);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            try {
+                resend = timer.schedule(this, policy.getRetransmitDelay(attempts), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the transport was closed after the packet was sent
+                future.completeExceptionally(new ClosedChannelException());
+            }
+        }
+
+        /**
+         * Called by the timer when an attempt went unanswered
+         */
+        @Override
+        public synchronized void run() {
+            if (future.isDone()) {
+                return;
+            }
+            int max = policy.getMaxAttempts();
+            if (max > 0 && attempts >= max) {
+                future.completeExceptionally(
+                        new SocketTimeoutException("No response from " + dest + " after " + attempts + " attempts"));
+                return;
+            }
+            log.debug("No response for {} after attempt {}, re-sending", key, attempts);
+            send();
+        }
+
+        private boolean complete(ByteBuffer response) {
+            int sent;
+            synchronized (this) {
+                sent = attempts;
+            }
+            policy.onResponse(System.nanoTime() - lastSentAt, sent);
+            return future.complete(response);
+        }
+
+        /**
+         * Returns the packet to the pool once no attempt can be sent anymore
+         */
+        private synchronized void releasePacket() {
+            if (packet != null) {
+                pool.release(packet);
+                packet = null;
+            }
+        }
+
+        private void cancelResend() {
+            ScheduledFuture<?> r = resend;
+            if (r != null) {
+                r.cancel(false);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Identifies a single request/response exchange on the shared transport.
+ * Broadlink devices echo the packet counter (0x28-0x29) and their MAC address
+ * (0x2a-0x2f) in every response, so these 8 bytes together with the remote
+ * address pair a response with the request that caused it.
+ *
+ * @author Anthony
+ *
+ */
+final class ExchangeKey {
+
+    /**
+     * Offset of the packet counter in the packet header
+     */
+    static final int COUNTER_OFFSET = 0x28;
+
+    /**
+     * Minimum length of a packet that carries the counter and MAC fields
+     */
+    static final int MIN_LENGTH = 0x30;
+
+    private final SocketAddress address;
+
+    private final long tag;
+
+    private ExchangeKey(SocketAddress address, long tag) {
+        this.address = address;
+        this.tag = tag;
+    }
+
+    /**
+     * Creates the key of an outgoing packet
+     *
+     * @param address
+     *            Destination address
+     * @param data
+     *            The compiled packet
+     * @return The exchange key
+     */
+    static ExchangeKey of(InetSocketAddress address, byte[] data) {
+        return of(address, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates the key of a packet held in a buffer, starting at the buffer's
+     * position
+     *
+     * @param address
+     *            Remote address
+     * @param data
+     *            Buffer holding the packet
+     * @return The exchange key
+     */
+    static ExchangeKey of(SocketAddress address, ByteBuffer data) {
+        if (data.remaining() < MIN_LENGTH) {
+            throw new IllegalArgumentException("Packet is too short to carry a counter and MAC: " + data.remaining());
+        }
+        // counter (16 bits) and MAC (48 bits) read as one little-endian long
+        int start = data.position() + COUNTER_OFFSET;
+        long tag = 0;
+        for (int i = 7; i >= 0; i--) {
+            tag = (tag << 8) | (data.get(start + i) & 0xff);
+        }
+        return new ExchangeKey(address, tag);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * address.hashCode() + Long.hashCode(tag);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ExchangeKey)) {
+            return false;
+        }
+        ExchangeKey other = (ExchangeKey) obj;
+        return tag == other.tag && address.equals(other.address);
+    }
+
+    @Override
+    public String toString() {
+        return address + "#" + Long.toHexString(tag);
+    }
+
+}
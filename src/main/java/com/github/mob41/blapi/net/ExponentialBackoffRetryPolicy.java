@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Re-sends a packet with an exponentially growing delay. A random jitter
+ * keeps many devices that lost packets at the same time from re-sending in
+ * lockstep.
+ *
+ * @author Anthony
+ *
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    private final long initialDelay;
+
+    private final double multiplier;
+
+    private final long maxDelay;
+
+    private final double jitter;
+
+    private final int maxAttempts;
+
+    /**
+     * Creates an exponential backoff policy
+     *
+     * @param initialDelay
+     *            Delay after the first attempt in ms
+     * @param multiplier
+     *            Factor the delay grows by after every attempt
+     * @param maxDelay
+     *            Upper bound of the delay in ms
+     * @param jitter
+     *            Fraction of the delay, between 0 and 1, by which each delay
+     *            is randomly shortened or lengthened
+     * @param maxAttempts
+     *            Maximum attempts, or 0 for no limit
+     */
+    public ExponentialBackoffRetryPolicy(long initialDelay, double multiplier, long maxDelay, double jitter,
+            int maxAttempts) {
+        if (initialDelay <= 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("Invalid delays: initial=" + initialDelay + " max=" + maxDelay);
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("Multiplier must be at least 1: " + multiplier);
+        }
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be between 0 and 1: " + jitter);
+        }
+        this.initialDelay = initialDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public long getRetransmitDelay(int attempt) {
+        double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt - 1));
+        if (jitter > 0) {
+            delay *= 1 + jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+        }
+        return Math.max(1, Math.round(delay));
+    }
+
+    @Override
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @Override
+    public String toString() {
+        return "ExponentialBackoffRetryPolicy [initialDelay=" + initialDelay + ", multiplier=" + multiplier
+                + ", maxDelay=" + maxDelay + ", jitter=" + jitter + ", maxAttempts=" + maxAttempts + "]";
+    }
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link WireTap} that logs hex dumps at debug level. Only every n-th
+ * exchange is dumped, so tracing can stay on against a busy network. The
+ * exchanges are picked by their packet counter, so a sampled exchange is
+ * dumped in full: plain payload, every datagram and decrypted reply. Nothing
+ * is formatted unless debug logging is enabled for this class.
+ *
+ * @author Anthony
+ *
+ */
+public class HexDumpWireTap implements WireTap {
+
+    private static final Logger log = LoggerFactory.getLogger(HexDumpWireTap.class);
+
+    /**
+     * Offset of the packet counter in a datagram
+     */
+    private static final int COUNTER_OFFSET = 0x28;
+
+    private final int sampleEvery;
+
+    /**
+     * Creates a tap that dumps every event
+     */
+    public HexDumpWireTap() {
+        this(1);
+    }
+
+    /**
+     * Creates a sampling tap
+     *
+     * @param sampleEvery
+     *            Dump one exchange out of this many, at least 1
+     */
+    public HexDumpWireTap(int sampleEvery) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1: " + sampleEvery);
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    @Override
+    public void onPlainPayload(SocketAddress device, int counter, ByteBuffer payload) {
+        dump("payload to", device, counter, payload);
+    }
+
+    @Override
+    public void onPacketSent(SocketAddress dest, ByteBuffer packet) {
+        dump("sent to", dest, counterOf(packet), packet);
+    }
+
+    @Override
+    public void onPacketReceived(SocketAddress src, ByteBuffer packet) {
+        dump("received from", src, counterOf(packet), packet);
+    }
+
+    @Override
+    public void onPayloadDecrypted(SocketAddress device, int counter, ByteBuffer payload) {
+        dump("payload from", device, counter, payload);
+    }
+
+    /**
+     * Returns the little-endian packet counter of a datagram, or 0 for a
+     * datagram too short to carry one, which is then always dumped
+     */
+    private static int counterOf(ByteBuffer packet) {
+        int at = packet.position() + COUNTER_OFFSET;
+        if (packet.limit() < at + 2) {
+            return 0;
+        }
+        return (packet.get(at) & 0xff) | (packet.get(at + 1) & 0xff) << 8;
+    }
+
+    private void dump(String what, SocketAddress remote, int counter, ByteBuffer data) {
+        if (!log.isDebugEnabled() || counter % sampleEvery != 0) {
+            return;
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        log.debug("{} {} #{} ({} bytes): {}", what, remote, counter, bytes.length,
+                DatatypeConverter.printHexBinary(bytes));
+    }
+
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of exchanges a single device has in flight. Exchanges
+ * submitted beyond the limit wait in one FIFO lane per {@link Priority} and
+ * are started as earlier ones complete, interactive ones first. No thread is
+ * blocked while waiting.
+ *
+ * @author Anthony
+ *
+ */
+public class InFlightWindow {
+
+    private final Queue<Runnable> interactive = new ArrayDeque<>();
+
+    private final Queue<Runnable> background = new ArrayDeque<>();
+
+    private int limit;
+
+    private int inFlight;
+
+    /**
+     * Whether a thread is starting waiting exchanges. Exchanges that complete
+     * synchronously release their slot from within {@link #drain()}; the
+     * thread already draining picks up the freed slot instead of recursing.
+     */
+    private boolean draining;
+
+    /**
+     * Creates a window
+     *
+     * @param limit
+     *            Maximum number of exchanges in flight
+     */
+    public InFlightWindow(int limit) {
+        setLimit(limit);
+    }
+
+    /**
+     * Returns the maximum number of exchanges in flight
+     *
+     * @return The window size
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Changes the maximum number of exchanges in flight. Waiting exchanges
+     * are started if the window grows.
+     *
+     * @param limit
+     *            The new window size, at least 1
+     */
+    public void setLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1: " + limit);
+        }
+        synchronized (this) {
+            this.limit = limit;
+        }
+        drain();
+    }
+
+    /**
+     * Returns the number of exchanges currently in flight
+     *
+     * @return Exchanges in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of exchanges waiting for a free slot
+     *
+     * @return Waiting exchanges
+     */
+    public synchronized int getWaiting() {
+        return interactive.size() + background.size();
+    }
+
+    /**
+     * Returns the number of exchanges of a lane waiting for a free slot
+     *
+     * @param priority
+     *            The lane
+     * @return Waiting exchanges
+     */
+    public synchronized int getWaiting(Priority priority) {
+        return lane(priority).size();
+    }
+
+    /**
+     * Starts an interactive exchange as soon as a slot in the window is free
+     *
+     * @param exchange
+     *            Starts the exchange. Called once a slot is taken
+     * @param <T>
+     *            Result type
+     * @return A future of the exchange result
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> exchange) {
+        return submit(exchange, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Starts an exchange as soon as a slot in the window is free and no
+     * exchange of a higher priority is waiting
+     *
+     * @param exchange
+     *            Starts the exchange. Called once a slot is taken
+     * @param priority
+     *            Lane to wait in
+     * @param <T>
+     *            Result type
+     * @return A future of the exchange result
+     */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> exchange, Priority priority) {
+        if (priority == null) {
+            throw new NullPointerException("Priority is required");
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            if (result.isDone()) {
+                // cancelled while waiting for a slot
+                release();
+                return;
+            }
+
+            CompletableFuture<T> f;
+            try {
+                f = exchange.get();
+            } catch (RuntimeException e) {
+                f = new CompletableFuture<>();
+                f.completeExceptionally(e);
+            }
+
+            CompletableFuture<T> started = f;
+            result.whenComplete((r, e) -> {
+                // cancelled, or failed by the caller, e.g. on a timeout
+                if (e != null) {
+                    started.cancel(false);
+                }
+            });
+            started.whenComplete((r, e) -> {
+                release();
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(r);
+                }
+            });
+        };
+
+        boolean run;
+        synchronized (this) {
+            // a background exchange does not overtake waiting interactive ones
+            run = inFlight < limit && (priority == Priority.INTERACTIVE || interactive.isEmpty());
+            if (run) {
+                inFlight++;
+            } else {
+                lane(priority).add(start);
+            }
+        }
+
+        if (run) {
+            start.run();
+        }
+        return result;
+    }
+
+    private void release() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    next = inFlight < limit ? interactive.poll() : null;
+                    if (next == null && inFlight < limit && interactive.isEmpty()) {
+                        next = background.poll();
+                    }
+                    if (next == null) {
+                        // decided under the same lock a releasing thread
+                        // checks the flag with, so no freed slot is missed
+                        draining = false;
+                        done = true;
+                        return;
+                    }
+                    inFlight++;
+                }
+                next.run();
+            }
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+        }
+    }
+
+    private Queue<Runnable> lane(Priority priority) {
+        return priority == Priority.INTERACTIVE ? interactive : background;
+    }
+
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records latencies in buckets of powers of two microseconds, from 1 us up
+ * to over half an hour, so recording takes constant time and space however
+ * many samples there are. Percentiles are reported as the upper bound of the
+ * bucket they fall in, at most twice the true value.<br>
+ * <br>
+ * An instance can be recorded to from several threads.
+ *
+ * @author Anthony
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final long[] counts = new long[BUCKETS];
+
+    private long count;
+
+    private long sum;
+
+    private long min = Long.MAX_VALUE;
+
+    private long max;
+
+    /**
+     * Records a latency
+     *
+     * @param nanos
+     *            The latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros | 1));
+        counts[bucket]++;
+        count++;
+        sum += micros;
+        min = Math.min(min, micros);
+        max = Math.max(max, micros);
+    }
+
+    /**
+     * Returns the number of latencies recorded
+     *
+     * @return Number of samples
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the lowest latency recorded
+     *
+     * @return The lowest latency in ms, 0 if none was recorded
+     */
+    public synchronized double getMin() {
+        return count == 0 ? 0 : min / 1000.0;
+    }
+
+    /**
+     * Returns the highest latency recorded
+     *
+     * @return The highest latency in ms
+     */
+    public synchronized double getMax() {
+        return max / 1000.0;
+    }
+
+    /**
+     * Returns the mean of the latencies recorded
+     *
+     * @return The mean latency in ms, 0 if none was recorded
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0 : sum / 1000.0 / count;
+    }
+
+    /**
+     * Returns a percentile of the latencies recorded
+     *
+     * @param percentile
+     *            The percentile, between 0 and 100
+     * @return The upper bound of the bucket holding the percentile in ms, 0
+     *         if none was recorded
+     */
+    public synchronized double getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // never report more than the highest sample
+                return Math.min((1L << (i + 1)) - 1, max) / 1000.0;
+            }
+        }
+        return max / 1000.0;
+    }
+
+    /**
+     * Returns the number of latencies in each bucket. Bucket <code>i</code>
+     * holds the latencies from <code>2^i</code> up to
+     * <code>2^(i+1)</code> microseconds, bucket 0 those below 2 us.
+     *
+     * @return A copy of the bucket counts
+     */
+    public synchronized long[] getBucketCounts() {
+        return counts.clone();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LatencyHistogram [count=%d, min=%.3f, mean=%.3f, p50=%.3f, p99=%.3f, max=%.3f]", count,
+                getMin(), getMean(), getPercentile(50), getPercentile(99), getMax());
+    }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+/**
+ * Decides when an unanswered packet is re-sent and when the transport gives
+ * up on it.<br>
+ * <br>
+ * Policies that learn from round trip times, like
+ * {@link AdaptiveRetryPolicy}, keep per-device state and must not be shared
+ * between devices.
+ *
+ * @author Anthony
+ *
+ */
+public interface RetryPolicy {
+
+    /**
+     * Re-sends every second until the exchange times out. This is how the
+     * library behaved before retry policies were configurable.
+     */
+    static final RetryPolicy DEFAULT = new FixedRetryPolicy(1000, 0);
+
+    /**
+     * Returns how long to wait for a response after an attempt before
+     * re-sending the packet
+     *
+     * @param attempt
+     *            Number of attempts sent so far, starting from 1
+     * @return Delay in ms
+     */
+    public long getRetransmitDelay(int attempt);
+
+    /**
+     * Returns the maximum number of times a packet is sent
+     *
+     * @return Maximum attempts, or 0 for no limit other than the exchange
+     *         timeout
+     */
+    public int getMaxAttempts();
+
+    /**
+     * Called when a response arrives
+     *
+     * @param rttNanos
+     *            Time between the last attempt and the response in ns
+     * @param attempts
+     *            Number of attempts sent. When greater than 1 the response
+     *            may belong to any of them
+     */
+    public default void onResponse(long rttNanos, int attempts) {
+    }
+
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Observes the raw bytes exchanged with devices, for protocol tracing. A
+ * tap sees each command payload before it is encrypted, every datagram sent
+ * and received as it is on the wire, and each response payload after it is
+ * decrypted.<br>
+ * <br>
+ * All events of one exchange share the packet counter at 0x28-0x29 of its
+ * datagrams, which the payload events are given explicitly, so a tap can
+ * trace whole exchanges.<br>
+ * <br>
+ * Buffers handed to a tap hold the bytes between their position and limit,
+ * must not be modified and are only valid during the call. Taps are called
+ * on the sending thread and on the transport's I/O thread, so they should
+ * return quickly. The {@link #NONE} tap is checked for by identity, so
+ * leaving it installed costs nothing.
+ *
+ * @author Anthony
+ *
+ */
+public interface WireTap {
+
+    /**
+     * The tap that ignores everything
+     */
+    public static final WireTap NONE = new WireTap() {
+    };
+
+    /**
+     * Called with a command payload before it is encrypted
+     *
+     * @param device
+     *            Address of the device the command is sent to
+     * @param counter
+     *            Packet counter of the datagram carrying the payload
+     * @param payload
+     *            The un-encrypted payload
+     */
+    public default void onPlainPayload(SocketAddress device, int counter, ByteBuffer payload) {
+    }
+
+    /**
+     * Called with each datagram sent, re-sends included
+     *
+     * @param dest
+     *            Destination address
+     * @param packet
+     *            The datagram as sent
+     */
+    public default void onPacketSent(SocketAddress dest, ByteBuffer packet) {
+    }
+
+    /**
+     * Called with each datagram received, including those matching no
+     * request
+     *
+     * @param src
+     *            Source address
+     * @param packet
+     *            The datagram as received
+     */
+    public default void onPacketReceived(SocketAddress src, ByteBuffer packet) {
+    }
+
+    /**
+     * Called with a response payload after it is decrypted
+     *
+     * @param device
+     *            Address of the device that sent the response
+     * @param counter
+     *            Packet counter echoed in the response
+     * @param payload
+     *            The decrypted payload
+     */
+    public default void onPayloadDecrypted(SocketAddress device, int counter, ByteBuffer payload) {
+    }
+
+}
@@ -29,15 +29,10 @@
 package com.github.mob41.blapi.pkt;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
-import javax.xml.bind.DatatypeConverter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.mob41.blapi.BLDevice;
-import com.github.mob41.blapi.ex.BLApiRuntimeException;
 import com.github.mob41.blapi.mac.Mac;
 import com.github.mob41.blapi.pkt.auth.AES;
 
@@ -72,94 +67,10 @@ public class CmdPacket implements Packet {
      *            The data to be sent
      */
     public CmdPacket(Mac targetMac, int count, byte[] id, AES aesInstance, byte cmd, byte[] payload) {
-        log.debug("Unencrypted payload: "+DatatypeConverter.printHexBinary(payload));
         log.debug("Constructor CmdPacket starts");
-        log.debug("count=" + count + " cmdPayload.cmd=" + Integer.toHexString(cmd) + " payload.len=" + payload.length);
-
-        count = (count + 1) & 0xffff; // increased by the sendPkt()
-
-        log.debug("New count: " + count + " (added by 1)");
-        log.debug("Creating byte array with data");
-
-        ByteBuffer headerdata = ByteBuffer.allocate(BLDevice.DEFAULT_BYTES_SIZE);
-        headerdata.putInt(0x5aa5aa55)
-                  .putInt(0x5aa5aa55)
-
-//                  .putShort(0x24, (short) 0x0d52)         // dev_type
-                  .put(0x26, cmd)
-
-                  .putShort(0x28, (short) count);
-
-        byte[] mac = targetMac.getMac();
-
-        headerdata.put(0x2a, mac[5])
-                  .put(0x2b, mac[4])
-                  .put(0x2c, mac[3])
-                  .put(0x2d, mac[2])
-                  .put(0x2e, mac[1])
-                  .put(0x2f, mac[0]);
-
-        headerdata.position(0x30);
-        headerdata.put(id);
-
-        // pad the payload for AES encryption
-        byte[] payloadPad = null;
-        if (payload.length > 0) {
-          int numpad = 16 - (payload.length % 16);
-
-          payloadPad = new byte[payload.length+numpad];
-          for(int i = 0; i < payloadPad.length; i++) {
-        	  if(i < payload.length) {
-                payloadPad[i] = payload[i];
-            } else {
-                payloadPad[i] = 0x00;
-            }
-          }
-        }
-
-        log.debug("Running checksum for un-encrypted payload");
-
-        int checksumpayload = 0xbeaf;
-        for (int i = 0; i < payloadPad.length; i++) {
-            checksumpayload = checksumpayload + Byte.toUnsignedInt(payloadPad[i]);
-            checksumpayload = checksumpayload & 0xffff;
-        }
-
-        headerdata.order(ByteOrder.LITTLE_ENDIAN);
-        headerdata.putShort(0x34, (short) checksumpayload);
-
-        log.debug("Un-encrypted payload checksum: " + Integer.toHexString(checksumpayload));
-
-        try {
-            log.debug("Encrypting payload");
-
-            payload = aesInstance.encrypt(payloadPad);
-            log.debug("Encrypted payload bytes: {}", DatatypeConverter.printHexBinary(payload));
-
-            log.debug("Encrypted. len=" + payload.length);
-        } catch (Exception e) {
-            log.error("Cannot encrypt payload! Aborting", e);
-            throw new BLApiRuntimeException("Cannot encrypt payload", e);
-        }
-
-        data = ByteBuffer.allocate(BLDevice.DEFAULT_BYTES_SIZE + payload.length);
-        data.order(ByteOrder.LITTLE_ENDIAN);
-        headerdata.position(0);
-        data.put(headerdata);
-        data.put(payload);
-
-        log.debug("Running whole packet checksum");
-
-        int checksumpkt = 0xbeaf;
-        for (int i = 0; i < data.capacity(); i++) {
-            checksumpkt = checksumpkt + Byte.toUnsignedInt(data.get(i));
-            checksumpkt = checksumpkt & 0xffff;
-//            log.debug("index: " + i + ", data byte: " + Byte.toUnsignedInt(data[i]) + ", checksum: " + checksumpkt);
-        }
-
-        log.debug("Whole packet checksum: " + Integer.toHexString(checksumpkt));
 
-        data.putShort(0x20, (short) checksumpkt);
+        data = ByteBuffer.allocate(CmdPacketEncoder.getEncodedLength(payload.length));
+        new CmdPacketEncoder(targetMac, id, aesInstance).encode(data, count, cmd, payload);
 
         log.debug("End of CmdPacket constructor");
     }
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.pkt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.ex.BLApiRuntimeException;
+import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.pkt.auth.AES;
+
+/**
+ * Encodes the command packets of one device session. The magic words,
+ * byte-reversed MAC address and device ID never change within a session, so
+ * they are laid out once in a header template together with their share of
+ * the packet checksum. Encoding a packet then copies the template, patches
+ * the command, counter and checksum fields and encrypts the payload in place.
+ *
+ * @author Anthony
+ *
+ */
+public final class CmdPacketEncoder {
+
+    private static final Logger log = LoggerFactory.getLogger(CmdPacketEncoder.class);
+
+    private static final int CHECKSUM_OFFSET = 0x20;
+
+    private static final int CMD_OFFSET = 0x26;
+
+    private static final int COUNT_OFFSET = 0x28;
+
+    private static final int PAYLOAD_CHECKSUM_OFFSET = 0x34;
+
+    private final byte[] template = new byte[BLDevice.DEFAULT_BYTES_SIZE];
+
+    /**
+     * <code>0xbeaf</code> plus the bytes of the template, which are the same
+     * in every packet of the session
+     */
+    private final int templateChecksum;
+
+    private final AES aes;
+
+    /**
+     * Creates the encoder of a device session
+     *
+     * @param targetMac
+     *            Target Broadlink device MAC address
+     * @param id
+     *            This BLDevice ID provided by the Broadlink device. It is
+     *            {0,0,0,0} if auth() not ran
+     * @param aes
+     *            The session AES encrypt/decrypt instance
+     */
+    public CmdPacketEncoder(Mac targetMac, byte[] id, AES aes) {
+        this.aes = aes;
+
+        ByteBuffer header = ByteBuffer.wrap(template).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x00, 0x55aaa55a)
+              .putInt(0x04, 0x55aaa55a);
+
+        byte[] mac = targetMac.getMac();
+        for (int i = 0; i < 6; i++) {
+            template[0x2a + i] = mac[5 - i];
+        }
+        System.arraycopy(id, 0, template, 0x30, id.length);
+
+        int checksum = 0xbeaf;
+        for (byte b : template) {
+            checksum += Byte.toUnsignedInt(b);
+        }
+        templateChecksum = checksum;
+    }
+
+    /**
+     * Returns the AES instance this encoder encrypts with
+     *
+     * @return The session AES instance
+     */
+    public AES getAes() {
+        return aes;
+    }
+
+    /**
+     * Returns the length of a command packet carrying a payload
+     *
+     * @param payloadLength
+     *            Length of the un-encrypted payload
+     * @return The packet length, header included
+     */
+    public static int getEncodedLength(int payloadLength) {
+        // the payload is always padded, even if already a multiple of 16
+        return BLDevice.DEFAULT_BYTES_SIZE + payloadLength + 16 - (payloadLength % 16);
+    }
+
+    /**
+     * Encodes a command packet into a buffer, without creating any
+     * intermediate arrays
+     *
+     * @param dest
+     *            Receives the packet at its position, which is advanced past
+     *            it. Must have {@link #getEncodedLength(int)} bytes remaining
+     * @param count
+     *            Count of packets sent (provided by BLDevice sendPkt())
+     * @param cmd
+     *            command to be sent
+     * @param payload
+     *            The data to be sent
+     * @return Number of bytes written
+     */
+    public int encode(ByteBuffer dest, int count, byte cmd, byte[] payload) {
+        if (payload.length == 0) {
+            throw new BLApiRuntimeException("Cannot send a command packet without payload");
+        }
+        count = (count + 1) & 0xffff; // increased by the sendPkt()
+        ByteOrder order = dest.order();
+        int start = begin(dest, count, cmd, payload.length);
+        dest.put(payload);
+        int len = finish(dest, start, count, cmd, payload.length);
+        dest.order(order);
+        return len;
+    }
+
+    /**
+     * Encodes a command packet whose payload is a command code followed by
+     * its data, writing both straight into the buffer rather than assembling
+     * the payload in an array first
+     *
+     * @param dest
+     *            Receives the packet at its position, which is advanced past
+     *            it. Must have {@link #getEncodedLength(int)} bytes remaining
+     *            for the whole payload
+     * @param count
+     *            Count of packets sent (provided by BLDevice sendPkt())
+     * @param cmd
+     *            command to be sent
+     * @param command
+     *            Command code, the first little-endian int of the payload
+     * @param data
+     *            The data following the command code
+     * @param lengthPrefixed
+     *            Whether the payload starts with the length of the command
+     *            code and data, as a little-endian short
+     * @return Number of bytes written
+     */
+    public int encode(ByteBuffer dest, int count, byte cmd, int command, byte[] data, boolean lengthPrefixed) {
+        int payloadLength = getPayloadLength(data.length, lengthPrefixed);
+        count = (count + 1) & 0xffff; // increased by the sendPkt()
+        ByteOrder order = dest.order();
+        int start = begin(dest, count, cmd, payloadLength);
+        if (lengthPrefixed) {
+            dest.putShort((short) (4 + data.length));
+        }
+        dest.putInt(command);
+        dest.put(data);
+        int len = finish(dest, start, count, cmd, payloadLength);
+        dest.order(order);
+        return len;
+    }
+
+    /**
+     * Returns the length of a payload made of a command code and its data
+     *
+     * @param dataLength
+     *            Length of the data following the command code
+     * @param lengthPrefixed
+     *            Whether the payload starts with its length
+     * @return The un-encrypted payload length
+     */
+    public static int getPayloadLength(int dataLength, boolean lengthPrefixed) {
+        return (lengthPrefixed ? 2 : 0) + 4 + dataLength;
+    }
+
+    /**
+     * Writes the header of a packet, leaving the buffer little-endian and
+     * positioned where the payload goes
+     *
+     * @return The start of the packet
+     */
+    private int begin(ByteBuffer dest, int count, byte cmd, int payloadLength) {
+        int len = getEncodedLength(payloadLength);
+        if (dest.remaining() < len) {
+            throw new BLApiRuntimeException("Buffer too small for a " + len + "-byte packet: " + dest.remaining());
+        }
+        log.debug("Encoding packet count={} cmd={} payload.len={}", count, cmd & 0xff, payloadLength);
+
+        dest.order(ByteOrder.LITTLE_ENDIAN);
+        int start = dest.position();
+        dest.put(template);
+        dest.put(start + CMD_OFFSET, cmd);
+        dest.putShort(start + COUNT_OFFSET, (short) count); // little-endian, as echoed by the device
+        return start;
+    }
+
+    /**
+     * Pads, sums and encrypts the payload written after the header, then
+     * completes the packet checksum
+     *
+     * @return Number of bytes written
+     */
+    private int finish(ByteBuffer dest, int start, int count, byte cmd, int payloadLength) {
+        int len = getEncodedLength(payloadLength);
+        int body = start + BLDevice.DEFAULT_BYTES_SIZE;
+        int end = start + len;
+
+        // zero-pad the payload and sum it
+        int checksumpayload = 0xbeaf;
+        for (int i = body + payloadLength; i < end; i++) {
+            dest.put(i, (byte) 0);
+        }
+        for (int i = body; i < body + payloadLength; i++) {
+            checksumpayload += Byte.toUnsignedInt(dest.get(i));
+        }
+        checksumpayload &= 0xffff;
+        dest.putShort(start + PAYLOAD_CHECKSUM_OFFSET, (short) checksumpayload);
+
+        try {
+            ByteBuffer in = dest.duplicate();
+            in.limit(end).position(body);
+            ByteBuffer out = in.duplicate();
+            aes.encrypt(in, out);
+        } catch (Exception e) {
+            log.error("Cannot encrypt payload! Aborting", e);
+            throw new BLApiRuntimeException("Cannot encrypt payload", e);
+        }
+
+        // fold the patched fields and the ciphertext into the template sum
+        int checksumpkt = templateChecksum + Byte.toUnsignedInt(cmd) + (count & 0xff) + (count >>> 8)
+                + (checksumpayload & 0xff) + (checksumpayload >>> 8);
+        for (int i = body; i < end; i++) {
+            checksumpkt += Byte.toUnsignedInt(dest.get(i));
+        }
+        dest.putShort(start + CHECKSUM_OFFSET, (short) checksumpkt);
+
+        dest.position(end);
+        log.debug("Packet checksums: payload={} whole={}", checksumpayload, checksumpkt & 0xffff);
+        return len;
+    }
+
+}
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.pkt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.ex.BLApiErrorResponseException;
+import com.github.mob41.blapi.ex.BLApiRuntimeException;
+import com.github.mob41.blapi.pkt.auth.AES;
+
+/**
+ * A view over a response datagram received from a Broadlink device. The
+ * header fields are read straight from the receive buffer, using the
+ * received length of the datagram, and the payload is decrypted in place.<br>
+ * <br>
+ * A frame is only valid until its response handler returns, as the buffer
+ * goes back to the transport's pool afterwards. Values needed later must be
+ * copied out.
+ *
+ * @author Anthony
+ *
+ */
+public final class ResponseFrame {
+
+    /**
+     * Offset of the error code
+     */
+    public static final int ERR_OFFSET = 0x22;
+
+    /**
+     * Error code of a failed authentication
+     */
+    public static final int ERR_AUTH_FAILED = -1;
+
+    /**
+     * Error code of a session the device has logged out
+     */
+    public static final int ERR_LOGGED_OUT = -2;
+
+    /**
+     * Error code of a session key the device no longer accepts, e.g. after a
+     * reboot
+     */
+    public static final int ERR_KEY_EXPIRED = -7;
+
+    /**
+     * Offset of the device type
+     */
+    public static final int DEVICE_TYPE_OFFSET = 0x24;
+
+    /**
+     * Offset of the command code
+     */
+    public static final int COMMAND_OFFSET = 0x26;
+
+    /**
+     * Offset of the packet counter echoed by the device
+     */
+    public static final int COUNTER_OFFSET = 0x28;
+
+    /**
+     * Offset of the encrypted payload
+     */
+    public static final int PAYLOAD_OFFSET = BLDevice.DEFAULT_BYTES_SIZE;
+
+    private ByteBuffer buf;
+
+    private int start;
+
+    private int length;
+
+    private boolean decrypted;
+
+    private final AES aes;
+
+    /**
+     * Creates a frame over a received datagram
+     *
+     * @param buf
+     *            Buffer holding the datagram between its position and limit
+     */
+    public ResponseFrame(ByteBuffer buf) {
+        this(buf, null);
+    }
+
+    /**
+     * Creates a frame over a received datagram, encrypted with a known
+     * session cipher
+     *
+     * @param buf
+     *            Buffer holding the datagram between its position and limit
+     * @param aes
+     *            Cipher of the session the request was sent with, or
+     *            <code>null</code> if unknown
+     */
+    public ResponseFrame(ByteBuffer buf, AES aes) {
+        this.aes = aes;
+        wrap(buf);
+    }
+
+    /**
+     * Returns the cipher of the session the request was sent with
+     *
+     * @return The session cipher, or <code>null</code> if unknown
+     */
+    public AES getAes() {
+        return aes;
+    }
+
+    /**
+     * Points this frame at another received datagram
+     *
+     * @param buf
+     *            Buffer holding the datagram between its position and limit
+     * @return This frame
+     */
+    public ResponseFrame wrap(ByteBuffer buf) {
+        if (buf.remaining() < PAYLOAD_OFFSET) {
+            throw new BLApiRuntimeException("Response is too short to carry a header: " + buf.remaining() + " bytes");
+        }
+        this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+        this.start = buf.position();
+        this.length = buf.remaining();
+        this.decrypted = false;
+        return this;
+    }
+
+    /**
+     * Returns the received length of the datagram
+     *
+     * @return Datagram length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the error code reported by the device
+     *
+     * @return The error code, 0 on success
+     */
+    public int getErr() {
+        return buf.getShort(start + ERR_OFFSET);
+    }
+
+    /**
+     * Throws if the device reported an error
+     *
+     * @param function
+     *            Name of the command, used in the exception message
+     * @throws BLApiErrorResponseException
+     *             If the error code is not 0
+     */
+    public void checkErr(String function) {
+        int err = getErr();
+        if (err != 0) {
+            throw new BLApiErrorResponseException(function, err);
+        }
+    }
+
+    /**
+     * Returns whether the device rejected the session the request was sent
+     * with, so that a new one must be negotiated with <code>auth()</code>
+     *
+     * @return Whether the error code is an authentication error
+     */
+    public boolean isAuthError() {
+        int err = getErr();
+        return err == ERR_AUTH_FAILED || err == ERR_LOGGED_OUT || err == ERR_KEY_EXPIRED;
+    }
+
+    /**
+     * Returns the type of the device that sent this response
+     *
+     * @return Device type
+     */
+    public short getDeviceType() {
+        return buf.getShort(start + DEVICE_TYPE_OFFSET);
+    }
+
+    /**
+     * Returns the command code of this response
+     *
+     * @return Command code
+     */
+    public int getCommand() {
+        return buf.getShort(start + COMMAND_OFFSET) & 0xffff;
+    }
+
+    /**
+     * Returns the packet counter echoed by the device
+     *
+     * @return Packet counter
+     */
+    public int getCounter() {
+        return buf.getShort(start + COUNTER_OFFSET) & 0xffff;
+    }
+
+    /**
+     * Returns the length of the payload following the header
+     *
+     * @return Payload length in bytes
+     */
+    public int getPayloadLength() {
+        return length - PAYLOAD_OFFSET;
+    }
+
+    /**
+     * Returns whether {@link #decryptPayload(AES) decryptPayload} has been
+     * called on this frame
+     *
+     * @return Whether the payload is decrypted
+     */
+    public boolean isDecrypted() {
+        return decrypted;
+    }
+
+    /**
+     * Returns a view of the payload, decrypted if
+     * {@link #decryptPayload(AES) decryptPayload} has been called
+     *
+     * @return A little-endian view of the payload, positioned at 0
+     */
+    public ByteBuffer getPayload() {
+        ByteBuffer view = buf.duplicate();
+        view.limit(start + PAYLOAD_OFFSET + (decrypted ? paddedPayloadLength() : getPayloadLength()));
+        view.position(start + PAYLOAD_OFFSET);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Decrypts the payload in place. A payload that is not a multiple of 16
+     * bytes long is padded with zeros first. Calling this again returns the
+     * already decrypted payload.
+     *
+     * @param aes
+     *            The session cipher
+     * @return A little-endian view of the decrypted payload, positioned at 0
+     * @throws Exception
+     *             If the payload cannot be decrypted
+     */
+    public ByteBuffer decryptPayload(AES aes) throws Exception {
+        if (!decrypted) {
+            int end = start + PAYLOAD_OFFSET + paddedPayloadLength();
+            if (end > buf.capacity()) {
+                throw new BLApiRuntimeException("No room to pad a " + getPayloadLength() + "-byte payload");
+            }
+            buf.limit(end);
+            for (int i = start + length; i < end; i++) {
+                buf.put(i, (byte) 0);
+            }
+
+            ByteBuffer in = buf.duplicate();
+            in.position(start + PAYLOAD_OFFSET);
+            ByteBuffer out = in.duplicate();
+            aes.decrypt(in, out);
+            decrypted = true;
+        }
+        return getPayload();
+    }
+
+    /**
+     * Copies the datagram into a new array
+     *
+     * @return The datagram bytes
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[length];
+        ByteBuffer view = buf.duplicate();
+        view.limit(start + length).position(start);
+        view.get(data);
+        return data;
+    }
+
+    private int paddedPayloadLength() {
+        return (getPayloadLength() + 15) & ~15;
+    }
+
+    /**
+     * Returns the datagram in hex, as received or with its payload decrypted
+     */
+    @Override
+    public String toString() {
+        ByteBuffer view = buf.duplicate();
+        view.limit(start + PAYLOAD_OFFSET + (decrypted ? paddedPayloadLength() : getPayloadLength()));
+        view.position(start);
+        byte[] data = new byte[view.remaining()];
+        view.get(data);
+        return DatatypeConverter.printHexBinary(data);
+    }
+
+}
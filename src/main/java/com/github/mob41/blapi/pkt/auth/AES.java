@@ -28,6 +28,9 @@
  *******************************************************************************/
 package com.github.mob41.blapi.pkt.auth;
 
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -38,25 +41,123 @@ public class AES {
 
     private static final String KEY_ALGO = "AES";
 
-    private final byte[] key;
+    /**
+     * Cipher instances of the current thread. Looking up a cipher is far
+     * more costly than using it, so each thread keeps one per mode.
+     */
+    private static final ThreadLocal<CipherCache> CIPHERS = ThreadLocal.withInitial(CipherCache::new);
+
+    private final SecretKeySpec keySpec;
 
-    private final byte[] iv;
+    private final IvParameterSpec ivSpec;
 
     public AES(byte[] iv, byte[] key) {
-        this.key = key;
-        this.iv = iv;
+        this.keySpec = new SecretKeySpec(key, KEY_ALGO);
+        this.ivSpec = new IvParameterSpec(iv);
     }
 
     public byte[] encrypt(byte[] data) throws Exception {
-        Cipher c = Cipher.getInstance(CIPHER_ALGO);
-        c.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, KEY_ALGO), new IvParameterSpec(iv));
-        return c.doFinal(data);
+        Cipher c = cipher(Cipher.ENCRYPT_MODE);
+        try {
+            return c.doFinal(data);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            CIPHERS.get().reset(Cipher.ENCRYPT_MODE);
+            throw e;
+        }
     }
 
     public byte[] decrypt(byte[] data) throws Exception {
-        Cipher c = Cipher.getInstance(CIPHER_ALGO);
-        c.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, KEY_ALGO), new IvParameterSpec(iv));
-        return c.doFinal(data);
+        return decrypt(data, 0, data.length);
+    }
+
+    public byte[] decrypt(byte[] data, int offset, int len) throws Exception {
+        Cipher c = cipher(Cipher.DECRYPT_MODE);
+        try {
+            return c.doFinal(data, offset, len);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            CIPHERS.get().reset(Cipher.DECRYPT_MODE);
+            throw e;
+        }
+    }
+
+    /**
+     * Encrypts the bytes remaining in <code>in</code> into <code>out</code>
+     * without copying them into arrays. Both buffers may be direct pooled
+     * buffers.
+     *
+     * @param in
+     *            Plain data, a multiple of 16 bytes long
+     * @param out
+     *            Receives the encrypted data
+     * @return Number of bytes written to <code>out</code>
+     * @throws Exception
+     *             If the data cannot be encrypted
+     */
+    public int encrypt(ByteBuffer in, ByteBuffer out) throws Exception {
+        Cipher c = cipher(Cipher.ENCRYPT_MODE);
+        try {
+            return c.doFinal(in, out);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            CIPHERS.get().reset(Cipher.ENCRYPT_MODE);
+            throw e;
+        }
+    }
+
+    /**
+     * Decrypts the bytes remaining in <code>in</code> into <code>out</code>
+     * without copying them into arrays. <code>in</code> and <code>out</code>
+     * may be views of the same buffer to decrypt in place.
+     *
+     * @param in
+     *            Encrypted data, a multiple of 16 bytes long
+     * @param out
+     *            Receives the decrypted data
+     * @return Number of bytes written to <code>out</code>
+     * @throws Exception
+     *             If the data cannot be decrypted
+     */
+    public int decrypt(ByteBuffer in, ByteBuffer out) throws Exception {
+        Cipher c = cipher(Cipher.DECRYPT_MODE);
+        try {
+            return c.doFinal(in, out);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            CIPHERS.get().reset(Cipher.DECRYPT_MODE);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns this thread's cipher for a mode, initialized with this key and
+     * IV. <code>doFinal</code> resets a cipher to its initialized state, so
+     * it is only re-initialized when last used by another key.
+     */
+    private Cipher cipher(int mode) throws GeneralSecurityException {
+        CipherCache cache = CIPHERS.get();
+        int i = mode == Cipher.ENCRYPT_MODE ? 0 : 1;
+        if (cache.ciphers[i] == null) {
+            cache.ciphers[i] = Cipher.getInstance(CIPHER_ALGO);
+        }
+        if (cache.owners[i] != this) {
+            cache.owners[i] = null;
+            cache.ciphers[i].init(mode, keySpec, ivSpec);
+            cache.owners[i] = this;
+        }
+        return cache.ciphers[i];
+    }
+
+    /**
+     * Encrypt and decrypt ciphers of one thread, with the keys they are
+     * initialized with
+     */
+    private static final class CipherCache {
+
+        private final Cipher[] ciphers = new Cipher[2];
+
+        private final AES[] owners = new AES[2];
+
+        private void reset(int mode) {
+            owners[mode == Cipher.ENCRYPT_MODE ? 0 : 1] = null;
+        }
     }
 
 }
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.pkt.auth;
+
+import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.pkt.CmdPacketEncoder;
+
+/**
+ * The state shared by every packet of a device session: the key and ID
+ * negotiated by the auth handshake, the cipher built from the key and the
+ * header template of the command packets. A session never changes once
+ * created; a new handshake creates a new session, which replaces the old one
+ * as a whole. A packet encoded with a session can therefore always be
+ * decrypted with the same session, whatever happens meanwhile.
+ *
+ * @author Anthony
+ *
+ */
+public final class Session {
+
+    private final byte[] key;
+
+    private final byte[] id;
+
+    private final AES aes;
+
+    private final CmdPacketEncoder encoder;
+
+    private final boolean authenticated;
+
+    /**
+     * Creates a session
+     *
+     * @param mac
+     *            MAC address of the device
+     * @param iv
+     *            The 16-byte initialization vector
+     * @param key
+     *            The 16-byte session key
+     * @param id
+     *            The 4-byte session ID
+     * @param authenticated
+     *            Whether the key and ID were given by the device, rather than
+     *            the initial ones used for the handshake
+     */
+    public Session(Mac mac, byte[] iv, byte[] key, byte[] id, boolean authenticated) {
+        if (key.length != 0x10 || id.length != 0x04) {
+            throw new IllegalArgumentException("Session key must be 16 bytes and ID 4 bytes: " + key.length + ", "
+                    + id.length);
+        }
+        this.key = key.clone();
+        this.id = id.clone();
+        this.aes = new AES(iv, this.key);
+        this.encoder = new CmdPacketEncoder(mac, this.id, aes);
+        this.authenticated = authenticated;
+    }
+
+    /**
+     * Returns the session key
+     *
+     * @return A copy of the 16-byte key
+     */
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * Returns the session ID
+     *
+     * @return A copy of the 4-byte ID
+     */
+    public byte[] getId() {
+        return id.clone();
+    }
+
+    /**
+     * Returns the cipher of the session
+     *
+     * @return The AES instance
+     */
+    public AES getAes() {
+        return aes;
+    }
+
+    /**
+     * Returns the encoder of the command packets of the session
+     *
+     * @return The packet encoder
+     */
+    public CmdPacketEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Returns whether the key and ID were given by the device
+     *
+     * @return Whether the session is authenticated
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+}
@@ -1,17 +1,17 @@
 package com.github.mob41.blapi.pkt.cmd.hysen;
 
-import java.net.DatagramPacket;
-import java.util.Arrays;
-
-import javax.xml.bind.DatatypeConverter;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.mob41.blapi.dev.hysen.BaseHysenDevice;
+import com.github.mob41.blapi.net.Priority;
 import com.github.mob41.blapi.pkt.CmdPayload;
 import com.github.mob41.blapi.pkt.Crc16;
 import com.github.mob41.blapi.pkt.Payload;
+import com.github.mob41.blapi.pkt.ResponseFrame;
 
 /**
  * Base hysen command Payload. Handles crc calculation
@@ -27,21 +27,43 @@ public abstract class BaseHysenCommand implements CmdPayload {
     protected static final Logger log = LoggerFactory.getLogger(BaseHysenCommand.class);
 
     public byte[] execute(BaseHysenDevice device) throws Exception {
+        return device.sendCmdPkt(10000, this, frame -> parse(device, frame), getPriority());
+    }
 
-        DatagramPacket packet = device.sendCmdPkt(this);
+    /**
+     * Sends this command to the device without blocking
+     * 
+     * @param device
+     *            The target thermostat
+     * @return A future of the decrypted response payload, or of
+     *         <code>null</code> if the device returned an error
+     */
+    public CompletableFuture<byte[]> executeAsync(BaseHysenDevice device) {
+        return device.sendCmdPktAsync(10000, this, frame -> parse(device, frame), getPriority());
+    }
 
-        byte[] data = packet.getData();
+    /**
+     * Lane this command waits in while the thermostat is busy. Writes are
+     * interactive, status reads override this to run in the background.
+     * 
+     * @return The command priority
+     */
+    protected Priority getPriority() {
+        return Priority.INTERACTIVE;
+    }
 
-        log.debug(this.getClass().getSimpleName() + " received encrypted bytes: "
-                + DatatypeConverter.printHexBinary(data));
+    private byte[] parse(BaseHysenDevice device, ResponseFrame frame) throws Exception {
+        log.debug("{} received encrypted bytes: {}", this.getClass().getSimpleName(), frame);
 
-        int err = data[0x22] | (data[0x23] << 8);
+        int err = frame.getErr();
 
         if (err == 0) {
-            byte[] pl = device.decryptFromDeviceMessage(data);
-            log.debug(this.getClass().getSimpleName() + " received bytes (decrypted): "
-                    + DatatypeConverter.printHexBinary(pl));
-            return Arrays.copyOfRange(pl, 2, pl.length);
+            ByteBuffer pl = device.decryptPayload(frame);
+            log.debug("{} received bytes (decrypted): {}", this.getClass().getSimpleName(), frame);
+            pl.position(2);
+            byte[] data = new byte[pl.remaining()];
+            pl.get(data);
+            return data;
         } else {
             log.warn(this.getClass().getSimpleName() + " received an error: " + Integer.toHexString(err) + " / " + err);
         }
@@ -82,7 +104,14 @@ public abstract class BaseHysenCommand implements CmdPayload {
 
     protected abstract byte[] getCmdBytes();
 
-    protected static byte getTempByte(double temp) {
+    /**
+     * Encodes a temperature as the thermostat stores it, in half degrees
+     *
+     * @param temp
+     *            Temperature in degrees
+     * @return The register byte
+     */
+    public static byte getTempByte(double temp) {
         return (byte) ((int) (temp * 2) & 0xff);
     }
 }
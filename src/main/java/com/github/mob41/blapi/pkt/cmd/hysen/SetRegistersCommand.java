@@ -0,0 +1,38 @@
+package com.github.mob41.blapi.pkt.cmd.hysen;
+
+/**
+ * Writes consecutive 16-bit registers in one Modbus "write multiple
+ * registers" (0x10) command
+ * 
+ * @author Anthony
+ */
+public class SetRegistersCommand extends GenericByteCommand {
+
+    /**
+     * Creates the command
+     * 
+     * @param firstRegister
+     *            Address of the first register to write
+     * @param values
+     *            Two bytes per register, high byte first
+     */
+    public SetRegistersCommand(int firstRegister, byte... values) {
+        super(toCmdBytes(firstRegister, values));
+    }
+
+    private static byte[] toCmdBytes(int firstRegister, byte[] values) {
+        if (values.length == 0 || values.length % 2 != 0) {
+            throw new IllegalArgumentException("Register values must be 2 bytes each: " + values.length + " bytes");
+        }
+        byte[] cmd = new byte[7 + values.length];
+        cmd[0] = 0x01;
+        cmd[1] = 0x10;
+        cmd[2] = (byte) (firstRegister >> 8);
+        cmd[3] = (byte) firstRegister;
+        cmd[4] = 0x00;
+        cmd[5] = (byte) (values.length / 2);
+        cmd[6] = (byte) values.length;
+        System.arraycopy(values, 0, cmd, 7, values.length);
+        return cmd;
+    }
+}
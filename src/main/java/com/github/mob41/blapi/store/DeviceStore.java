@@ -0,0 +1,467 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.DeviceTypeRegistry;
+import com.github.mob41.blapi.dis.DeviceChangeEvent;
+import com.github.mob41.blapi.dis.DeviceChangeEvent.Kind;
+import com.github.mob41.blapi.dis.DeviceChangeListener;
+import com.github.mob41.blapi.mac.Mac;
+
+/**
+ * Keeps devices and their sessions in a file, so that after a restart they
+ * can be used straight away, without discovery or an <code>auth()</code>
+ * handshake. A device that no longer accepts its stored session fails its
+ * next command, after which <code>auth()</code> negotiates a new session,
+ * which is stored in turn.<br>
+ * <br>
+ * Changes are written in the background, a short while after they happen,
+ * so that bursts of changes are written once. The file is replaced
+ * atomically and is only readable by its owner where the file system has
+ * POSIX permissions, as it holds session keys. Each device takes a few dozen
+ * bytes: its MAC address, device type, host, session key and ID and packet
+ * counter.<br>
+ * <br>
+ * Packet counters change with every command, so they are not written on
+ * each change: the store checks them every minute and writes them if they
+ * moved. Call {@link #flush()} or {@link #close()} to have the file hold the
+ * exact counters, for example before the application exits.<br>
+ * <br>
+ * A store can listen to a {@link com.github.mob41.blapi.dis.DiscoveryService
+ * DiscoveryService} to follow stored devices that move to another IP
+ * address.
+ * 
+ * @author Anthony
+ *
+ */
+public final class DeviceStore implements Closeable, DeviceChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceStore.class);
+
+    /**
+     * "BLDS"
+     */
+    private static final int MAGIC = 0x424c4453;
+
+    private static final int VERSION = 1;
+
+    /**
+     * Time changes are held before being written, in ms
+     */
+    private static final long WRITE_DELAY = 1000;
+
+    /**
+     * Time between checks for packet counters that moved, in ms
+     */
+    private static final long COUNTER_CHECK_INTERVAL = 60000;
+
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * A device as read from the file
+     */
+    private static final class Record {
+
+        private final Mac mac;
+
+        private final short deviceType;
+
+        private final String host;
+
+        private final byte[] key;
+
+        private final byte[] id;
+
+        private final int packetCount;
+
+        private Record(Mac mac, short deviceType, String host, byte[] key, byte[] id, int packetCount) {
+            this.mac = mac;
+            this.deviceType = deviceType;
+            this.host = host;
+            this.key = key;
+            this.id = id;
+            this.packetCount = packetCount;
+        }
+
+    }
+
+    private final Path file;
+
+    /**
+     * Devices read from the file and not opened yet
+     */
+    private final Map<Mac, Record> records = new LinkedHashMap<>();
+
+    private final Map<Mac, BLDevice> devices = new LinkedHashMap<>();
+
+    /**
+     * Packet counters of the devices as last written
+     */
+    private final Map<Mac, Integer> writtenCounts = new HashMap<>();
+
+    private final BLDevice.SessionListener sessionListener = device -> scheduleWrite();
+
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Serializes writes, so that an older snapshot never replaces a newer one
+     */
+    private final Object writeLock = new Object();
+
+    private boolean writePending;
+
+    private boolean closed;
+
+    private DeviceStore(Path file) {
+        this.file = file;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "blapi-device-store");
+            t.setDaemon(true);
+            return t;
+        });
+        writer = executor;
+        writer.scheduleWithFixedDelay(this::checkPacketCounts, COUNTER_CHECK_INTERVAL, COUNTER_CHECK_INTERVAL,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a store, reading the devices it holds. A missing file is an empty
+     * store; a file that cannot be read is logged and ignored, as it only
+     * saves a discovery and handshakes.
+     * 
+     * @param file
+     *            The store file, created on the first write
+     * @return The store
+     */
+    public static DeviceStore open(Path file) {
+        DeviceStore store = new DeviceStore(file);
+        try {
+            store.read();
+        } catch (NoSuchFileException e) {
+            log.debug("Device store {} does not exist yet", file);
+        } catch (IOException e) {
+            log.warn("Cannot read device store {}, starting empty", file, e);
+            store.records.clear();
+        }
+        return store;
+    }
+
+    /**
+     * Returns the file of this store
+     * 
+     * @return The store file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns every stored device. Devices are created on the first call with
+     * their stored sessions, ready to send commands.
+     * 
+     * @return The stored devices
+     */
+    public synchronized List<BLDevice> getDevices() {
+        for (Mac mac : new ArrayList<>(records.keySet())) {
+            getDevice(mac);
+        }
+        return new ArrayList<>(devices.values());
+    }
+
+    /**
+     * Returns a stored device, created with its stored session the first time
+     * 
+     * @param mac
+     *            MAC address of the device
+     * @return The device, or <code>null</code> if it is not stored or its
+     *         device type is not supported any more
+     */
+    public synchronized BLDevice getDevice(Mac mac) {
+        BLDevice device = devices.get(mac);
+        if (device != null) {
+            return device;
+        }
+
+        Record record = records.remove(mac);
+        if (record == null) {
+            return null;
+        }
+        if (!DeviceTypeRegistry.getInstance().isSupported(record.deviceType)) {
+            log.warn("Stored device {} has unsupported device type 0x{}", mac,
+                    Integer.toHexString(record.deviceType & 0xffff));
+            return null;
+        }
+
+        device = BLDevice.createInstance(record.deviceType, record.host, record.mac);
+        if (record.key != null) {
+            device.restoreSession(record.key, record.id, record.packetCount);
+        }
+        device.setSessionListener(sessionListener);
+        devices.put(mac, device);
+        return device;
+    }
+
+    /**
+     * Stores a device, replacing the device stored with the same MAC address.
+     * Its session is stored as it is when the store is written, and the
+     * store is written again whenever the device negotiates a new session.
+     * 
+     * @param device
+     *            The device to store
+     */
+    public synchronized void put(BLDevice device) {
+        records.remove(device.getMac());
+        BLDevice old = devices.put(device.getMac(), device);
+        if (old != null && old != device) {
+            old.setSessionListener(null);
+        }
+        device.setSessionListener(sessionListener);
+        scheduleWrite();
+    }
+
+    /**
+     * Removes a device from the store
+     * 
+     * @param mac
+     *            MAC address of the device
+     */
+    public synchronized void remove(Mac mac) {
+        BLDevice old = devices.remove(mac);
+        if (old != null) {
+            old.setSessionListener(null);
+        }
+        if (records.remove(mac) != null || old != null) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Points a stored device at its new IP address when discovery finds it
+     * has moved
+     * 
+     * @param event
+     *            A change found by discovery
+     */
+    @Override
+    public synchronized void onDeviceChange(DeviceChangeEvent event) {
+        if (event.getKind() != Kind.MOVED) {
+            return;
+        }
+        Mac mac = event.getMac();
+        String host = event.getCurrent().getHost();
+
+        BLDevice device = devices.get(mac);
+        if (device != null) {
+            device.setHost(host);
+            scheduleWrite();
+            return;
+        }
+        Record r = records.get(mac);
+        if (r != null) {
+            records.put(mac, new Record(mac, r.deviceType, host, r.key, r.id, r.packetCount));
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Writes the store now, with the current sessions and packet counters
+     * 
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    public void flush() throws IOException {
+        write();
+    }
+
+    /**
+     * Writes the store a last time and stops the background writer
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        writer.shutdownNow();
+        write();
+    }
+
+    private synchronized void scheduleWrite() {
+        if (writePending || closed) {
+            return;
+        }
+        writePending = true;
+        writer.schedule(() -> {
+            try {
+                write();
+            } catch (IOException e) {
+                log.warn("Cannot write device store {}", file, e);
+            }
+        }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void checkPacketCounts() {
+        for (BLDevice device : devices.values()) {
+            Integer written = writtenCounts.get(device.getMac());
+            if (written == null || written != device.getPacketCount()) {
+                scheduleWrite();
+                return;
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a device store");
+            }
+            int version = in.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported device store version: " + version);
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] macBytes = new byte[6];
+                in.readFully(macBytes);
+                short deviceType = in.readShort();
+                String host = in.readUTF();
+                byte[] key = null;
+                byte[] id = null;
+                if (in.readBoolean()) {
+                    key = new byte[0x10];
+                    id = new byte[0x04];
+                    in.readFully(key);
+                    in.readFully(id);
+                }
+                int packetCount = in.readUnsignedShort();
+
+                Mac mac = new Mac(macBytes);
+                records.put(mac, new Record(mac, deviceType, host, key, id, packetCount));
+            }
+        }
+        log.debug("Read {} devices from {}", records.size(), file);
+    }
+
+    private void write() throws IOException {
+        synchronized (writeLock) {
+            List<Record> snapshot = new ArrayList<>();
+            synchronized (this) {
+                writePending = false;
+                snapshot.addAll(records.values());
+                for (BLDevice device : devices.values()) {
+                    boolean auth = device.isAuthenticated();
+                    snapshot.add(new Record(device.getMac(), device.getDeviceType(), device.getHost(),
+                            auth ? device.getSessionKey() : null, auth ? device.getSessionId() : null,
+                            device.getPacketCount()));
+                }
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            createOwnerOnly(tmp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeInt(snapshot.size());
+                for (Record r : snapshot) {
+                    out.write(r.mac.getMac());
+                    out.writeShort(r.deviceType);
+                    out.writeUTF(r.host);
+                    out.writeBoolean(r.key != null);
+                    if (r.key != null) {
+                        out.write(r.key);
+                        out.write(r.id);
+                    }
+                    out.writeShort(r.packetCount);
+                }
+            }
+
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            log.debug("Wrote {} devices to {}", snapshot.size(), file);
+
+            synchronized (this) {
+                writtenCounts.clear();
+                for (Record r : snapshot) {
+                    writtenCounts.put(r.mac, r.packetCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an empty file that only its owner can read and write, where the
+     * file system supports it. The file is created fresh, so that a left-over
+     * file does not keep wider permissions.
+     */
+    private static void createOwnerOnly(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(OWNER_ONLY);
+            Files.createFile(path, attr);
+        } else {
+            Files.createFile(path);
+        }
+    }
+
+}
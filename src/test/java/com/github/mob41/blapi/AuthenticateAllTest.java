@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.net.DatagramTransport;
+
+public class AuthenticateAllTest {
+
+    /**
+     * Bound and never read, so every handshake sent to it times out
+     */
+    private DatagramChannel silent;
+
+    private DatagramTransport transport;
+
+    private static class SilentDevice extends BLDevice {
+
+        SilentDevice(int i, DatagramTransport transport) {
+            super((short) 0x2711, "Smart Plug V2", "127.0.0.1",
+                    new Mac(new byte[] { 2, 0, 0, 0, (byte) (i >> 8), (byte) i }), transport);
+        }
+
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        silent = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        InetSocketAddress silentAddress = (InetSocketAddress) silent.getLocalAddress();
+        // devices always use port 80, so their packets are sent to the
+        // silent channel instead
+        transport = new DatagramTransport(new InetSocketAddress(loopback, 0)) {
+            @Override
+            public void send(ByteBuffer data, InetSocketAddress dest) throws IOException {
+                super.send(data, silentAddress);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        silent.close();
+    }
+
+    private BLDevice newDevice(int i) {
+        return new SilentDevice(i, transport);
+    }
+
+    @Test(timeout = 10000)
+    public void devicesLeftWaitingAtTheDeadlineTimeOut() throws Exception {
+        List<BLDevice> fleet = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            fleet.add(newDevice(i));
+        }
+
+        AuthReport report = BLDevice.authenticateAllAsync(fleet, 4, 500).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3000, report.getCount(AuthOutcome.TIMEOUT));
+        assertEquals(0, report.getLatencies().getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void authenticatedDevicesAddNoLatency() throws Exception {
+        List<BLDevice> fleet = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            BLDevice device = newDevice(i);
+            device.restoreSession(new byte[0x10], new byte[] { 1, 0, 0, 0 }, 0);
+            fleet.add(device);
+        }
+
+        AuthReport report = BLDevice.authenticateAll(fleet, 4, 500);
+
+        assertEquals(10, report.getCount(AuthOutcome.OK));
+        assertEquals(0, report.getLatencies().getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void authenticatedDevicesStayOkWhenOthersTimeOut() throws Exception {
+        List<BLDevice> fleet = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            BLDevice device = newDevice(i);
+            if (i % 2 == 0) {
+                device.restoreSession(new byte[0x10], new byte[] { 1, 0, 0, 0 }, 0);
+            }
+            fleet.add(device);
+        }
+
+        AuthReport report = BLDevice.authenticateAll(fleet, 2, 300);
+
+        assertEquals(10, report.getCount(AuthOutcome.OK));
+        assertEquals(10, report.getCount(AuthOutcome.TIMEOUT));
+    }
+
+}
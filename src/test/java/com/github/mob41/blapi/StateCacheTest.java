@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.mob41.blapi.mac.Mac;
+
+public class StateCacheTest {
+
+    private static final String KEY = "getState";
+
+    private static class CachingDevice extends BLDevice {
+
+        CachingDevice() {
+            super((short) 0x2711, "Smart Plug V2", "127.0.0.1", new Mac(new byte[] { 3, 0, 0, 0, 0, 1 }));
+        }
+
+    }
+
+    private CachingDevice device;
+
+    @Before
+    public void setUp() {
+        device = new CachingDevice();
+        // every read goes to the device, the cache only records what it saw
+        device.setStateCacheTtl(0);
+    }
+
+    @Test
+    public void readStartedBeforeAPartialWriteDoesNotUndoIt() throws Exception {
+        device.putCachedState(KEY, 1);
+        CompletableFuture<Integer> staleRead = new CompletableFuture<>();
+        CompletableFuture<Integer> pending = device.cachedRead(KEY, () -> staleRead);
+
+        device.<Integer>updateCachedState(KEY, v -> v | 2);
+        staleRead.complete(1);
+        pending.get();
+
+        assertEquals(Integer.valueOf(3), device.getCachedState(KEY, 60000));
+    }
+
+    @Test
+    public void partialWriteWithoutAStateKeepsOlderReadsOut() throws Exception {
+        CompletableFuture<Integer> staleRead = new CompletableFuture<>();
+        CompletableFuture<Integer> pending = device.cachedRead(KEY, () -> staleRead);
+
+        device.<Integer>updateCachedState(KEY, v -> v | 2);
+        staleRead.complete(1);
+        pending.get();
+
+        assertNull(device.getCachedState(KEY, 60000));
+    }
+
+    @Test
+    public void readStartedAfterAWriteReplacesIt() throws Exception {
+        device.putCachedState(KEY, 1);
+        CompletableFuture<Integer> read = new CompletableFuture<>();
+        CompletableFuture<Integer> pending = device.cachedRead(KEY, () -> read);
+
+        read.complete(4);
+        pending.get();
+
+        assertEquals(Integer.valueOf(4), device.getCachedState(KEY, 60000));
+    }
+
+}
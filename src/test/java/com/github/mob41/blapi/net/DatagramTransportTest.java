@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DatagramTransportTest {
+
+    private DatagramTransport transport;
+
+    private DatagramSocket device;
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private volatile boolean echo;
+
+    @Before
+    public void setUp() throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        transport = new DatagramTransport(new InetSocketAddress(loopback, 0));
+        device = new DatagramSocket(0, loopback);
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    byte[] buf = new byte[2048];
+                    DatagramPacket p = new DatagramPacket(buf, buf.length);
+                    device.receive(p);
+                    received.incrementAndGet();
+                    if (echo) {
+                        device.send(new DatagramPacket(buf, p.getLength(), p.getSocketAddress()));
+                    }
+                }
+            } catch (Exception e) {
+                // socket closed
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @After
+    public void tearDown() {
+        device.close();
+        transport.close();
+    }
+
+    @Test
+    public void responseIsPairedWithItsRequest() throws Exception {
+        echo = true;
+        byte[] packet = packet(1);
+        DatagramPacket response = transport.exchangeAsync(packet, deviceAddress(), 2000, RetryPolicy.DEFAULT)
+                .get(5, TimeUnit.SECONDS);
+        assertArrayEquals(packet, Arrays.copyOf(response.getData(), response.getLength()));
+    }
+
+    @Test
+    public void unansweredExchangeTimesOut() throws Exception {
+        CompletableFuture<DatagramPacket> f = transport.exchangeAsync(packet(2), deviceAddress(), 200,
+                new FixedRetryPolicy(50, 0));
+        try {
+            f.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+            return;
+        }
+        throw new AssertionError("Exchange did not time out");
+    }
+
+    @Test
+    public void cancellingTheResultStopsTheResends() throws Exception {
+        CompletableFuture<DatagramPacket> f = transport.exchangeAsync(packet(3), deviceAddress(), 0,
+                new FixedRetryPolicy(20, 0));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(f.cancel(false));
+
+        Thread.sleep(50);
+        int afterCancel = received.get();
+        Thread.sleep(200);
+        assertEquals(afterCancel, received.get());
+    }
+
+    @Test
+    public void exchangeOnAClosedTransportFailsAndReleasesThePacket() throws Exception {
+        transport.close();
+        BufferPool pool = transport.getPool();
+        ByteBuffer packet = pool.copyOf(packet(4));
+        int idle = pool.getIdleCount();
+
+        CompletableFuture<ByteBuffer> f = transport.exchangeAsync(packet, deviceAddress(), 1000,
+                RetryPolicy.DEFAULT);
+
+        assertTrue(f.isCompletedExceptionally());
+        try {
+            f.get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+        }
+        assertEquals(idle + 1, pool.getIdleCount());
+    }
+
+    private InetSocketAddress deviceAddress() {
+        return new InetSocketAddress(device.getLocalAddress(), device.getLocalPort());
+    }
+
+    private static byte[] packet(int counter) {
+        byte[] packet = new byte[0x38];
+        packet[0x28] = (byte) counter;
+        packet[0x2a] = 0x01;
+        return packet;
+    }
+
+}
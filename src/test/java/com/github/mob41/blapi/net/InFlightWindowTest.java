@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void synchronousCompletionsQueuedBehindAGateAllComplete() throws Exception {
+        InFlightWindow window = new InFlightWindow(1);
+        CompletableFuture<Integer> gate = new CompletableFuture<>();
+        window.submit(() -> gate);
+
+        List<CompletableFuture<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            int n = i;
+            queued.add(window.submit(() -> CompletableFuture.completedFuture(n),
+                    i % 2 == 0 ? Priority.INTERACTIVE : Priority.BACKGROUND));
+        }
+        assertEquals(queued.size(), window.getWaiting());
+
+        gate.complete(-1);
+        CompletableFuture.allOf(queued.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(0, window.getInFlight());
+        assertEquals(0, window.getWaiting());
+    }
+
+    @Test
+    public void neverExceedsTheLimit() throws Exception {
+        InFlightWindow window = new InFlightWindow(3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(window.submit(() -> {
+                max.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                CompletableFuture<Void> f = new CompletableFuture<>();
+                synchronized (pending) {
+                    pending.add(f);
+                }
+                return f;
+            }));
+        }
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    break;
+                }
+                next = pending.remove(0);
+            }
+            inFlight.decrementAndGet();
+            next.complete(null);
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(3, max.get());
+    }
+
+    @Test
+    public void interactiveExchangesStartBeforeWaitingBackgroundOnes() throws Exception {
+        InFlightWindow window = new InFlightWindow(1);
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        window.submit(() -> gate);
+
+        List<String> order = new ArrayList<>();
+        window.submit(() -> record(order, "poll1"), Priority.BACKGROUND);
+        window.submit(() -> record(order, "poll2"), Priority.BACKGROUND);
+        CompletableFuture<Void> last = window.submit(() -> record(order, "set"), Priority.INTERACTIVE);
+
+        gate.complete(null);
+        last.get(10, TimeUnit.SECONDS);
+        assertEquals("set", order.get(0));
+        assertEquals(3, order.size());
+    }
+
+    @Test
+    public void cancelledWhileWaitingReleasesItsSlot() throws Exception {
+        InFlightWindow window = new InFlightWindow(1);
+        CompletableFuture<Void> gate = new CompletableFuture<>();
+        window.submit(() -> gate);
+
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<Void> cancelled = window.submit(() -> {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        CompletableFuture<Void> next = window.submit(() -> CompletableFuture.completedFuture(null));
+        assertTrue(cancelled.cancel(false));
+
+        gate.complete(null);
+        next.get(10, TimeUnit.SECONDS);
+        assertEquals(0, started.get());
+        assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void cancellingAStartedExchangeCancelsIt() {
+        InFlightWindow window = new InFlightWindow(1);
+        CompletableFuture<Void> exchange = new CompletableFuture<>();
+        CompletableFuture<Void> result = window.submit(() -> exchange);
+
+        result.cancel(false);
+        assertTrue(exchange.isCancelled());
+        assertFalse(window.getInFlight() > 0);
+    }
+
+    private static CompletableFuture<Void> record(List<String> order, String name) {
+        synchronized (order) {
+            order.add(name);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.pkt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import com.github.mob41.blapi.mac.Mac;
+import com.github.mob41.blapi.pkt.auth.AES;
+
+public class CmdPacketEncoderTest {
+
+    private static final int COMMAND = 0x0d;
+
+    private static final byte[] DATA = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 };
+
+    private final CmdPacketEncoder encoder = new CmdPacketEncoder(new Mac(new byte[] { 1, 2, 3, 4, 5, 6 }),
+            new byte[] { 1, 0, 0, 0 }, new AES(new byte[16], new byte[16]));
+
+    private static byte[] assemble(boolean lengthPrefixed) {
+        ByteBuffer b = ByteBuffer.allocate(CmdPacketEncoder.getPayloadLength(DATA.length, lengthPrefixed))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        if (lengthPrefixed) {
+            b.putShort((short) (4 + DATA.length));
+        }
+        return b.putInt(COMMAND).put(DATA).array();
+    }
+
+    private byte[] encodeAssembled(boolean lengthPrefixed) {
+        byte[] payload = assemble(lengthPrefixed);
+        ByteBuffer packet = ByteBuffer.allocate(CmdPacketEncoder.getEncodedLength(payload.length));
+        encoder.encode(packet, 41, (byte) 0x6a, payload);
+        return packet.array();
+    }
+
+    private byte[] encodeDirect(boolean lengthPrefixed) {
+        int len = CmdPacketEncoder.getEncodedLength(CmdPacketEncoder.getPayloadLength(DATA.length, lengthPrefixed));
+        // a big-endian buffer with some leading bytes, like a pooled one
+        ByteBuffer packet = ByteBuffer.allocate(8 + len);
+        packet.position(8);
+        assertEquals(len, encoder.encode(packet, 41, (byte) 0x6a, COMMAND, DATA, lengthPrefixed));
+        assertEquals(ByteOrder.BIG_ENDIAN, packet.order());
+        byte[] encoded = new byte[len];
+        System.arraycopy(packet.array(), 8, encoded, 0, len);
+        return encoded;
+    }
+
+    @Test
+    public void commandAndDataEncodeLikeTheAssembledPayload() {
+        assertArrayEquals(encodeAssembled(false), encodeDirect(false));
+    }
+
+    @Test
+    public void lengthPrefixedPayloadEncodesLikeTheAssembledPayload() {
+        assertArrayEquals(encodeAssembled(true), encodeDirect(true));
+    }
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2016, 2017 Anthony Law
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * Contributors:
+ *      - Anthony Law (mob41) - Initial API Implementation
+ *      - bwssytems
+ *      - Christian Fischer (computerlyrik)
+ *******************************************************************************/
+package com.github.mob41.blapi.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.mob41.blapi.BLDevice;
+import com.github.mob41.blapi.mac.Mac;
+
+public class DeviceStoreTest {
+
+    private static final Mac MAC = new Mac(new byte[] { 1, 2, 3, 4, 5, 6 });
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BLDevice newDevice() {
+        BLDevice device = BLDevice.createInstance((short) 0x2711, "127.0.0.1", MAC);
+        device.restoreSession(new byte[0x10], new byte[] { 1, 0, 0, 0 }, 100);
+        return device;
+    }
+
+    @Test
+    public void fileIsOnlyReadableByItsOwner() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("devices.bin");
+        assumeTrue(file.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+        try (DeviceStore store = DeviceStore.open(file)) {
+            store.put(newDevice());
+            store.flush();
+        }
+
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        assertFalse(Files.exists(file.resolveSibling("devices.bin.tmp")));
+    }
+
+    @Test
+    public void closeWritesTheCurrentPacketCounter() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("devices.bin");
+
+        try (DeviceStore store = DeviceStore.open(file)) {
+            BLDevice device = newDevice();
+            store.put(device);
+            store.flush();
+            // a counter that moves after the last write is not lost on close
+            device.restoreSession(device.getSessionKey(), device.getSessionId(), 250);
+        }
+
+        try (DeviceStore store = DeviceStore.open(file)) {
+            BLDevice device = store.getDevice(MAC);
+            assertTrue(device.isAuthenticated());
+            assertEquals(250, device.getPacketCount());
+        }
+    }
+
+}